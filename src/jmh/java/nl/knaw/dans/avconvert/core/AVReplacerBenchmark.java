@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying the AV files into a revision of the bag while hashing them. The placeholders are detected in the input bag, so the replacement can be
+ * repeated on the same revision.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class AVReplacerBenchmark {
+
+    @Param({ "1000:1024", "100:1048576", "10:104857600", "2:2147483648" })
+    public String layout;
+
+    private SyntheticBag bag;
+    private Path revision;
+    private FilesXml filesXml;
+    private MappingIndex mapping;
+    private long avBytes;
+
+    @Setup(Level.Trial)
+    public void createBag() throws Exception {
+        bag = new SyntheticBag(layout).createWithPlaceholders();
+        revision = bag.getBagDir().resolveSibling("revision");
+        new RevisionCopier(CopyStrategy.COPY).copy(bag.getBagDir(), revision);
+        filesXml = FilesXml.read(bag.getBagDir().resolve("metadata/files.xml"));
+        mapping = MappingIndex.read(bag.getMappingCsv(), bag.getAvDir(), bag.getAvDir());
+        var fileCount = Integer.parseInt(layout.split(":")[0]);
+        avBytes = fileCount / 2 * Long.parseLong(layout.split(":")[1]);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBag() throws Exception {
+        bag.delete();
+    }
+
+    @Benchmark
+    public Object replaceAVFiles(Throughput throughput) throws Exception {
+        var replaced = new AVReplacer(revision, mapping, filesXml, bag.getBagDir()).replaceAVFiles();
+        throughput.processed(avBytes);
+        return replaced;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The files.xml processing, on a bag of empty files to leave out the I/O of the payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class FilesXmlBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int entries;
+
+    private SyntheticBag bag;
+    private Path filesXmlPath;
+    private Path filesXmlBackup;
+    private FilesXml filesXml;
+    private MappingIndex mapping;
+
+    @Setup(Level.Trial)
+    public void createBag() throws Exception {
+        bag = new SyntheticBag(entries, 0).createWithPlaceholders();
+        filesXmlPath = bag.getBagDir().resolve("metadata/files.xml");
+        filesXmlBackup = bag.getBagDir().resolveSibling("files.xml");
+        Files.copy(filesXmlPath, filesXmlBackup);
+        filesXml = FilesXml.read(filesXmlPath);
+        mapping = MappingIndex.read(bag.getMappingCsv(), bag.getAvDir(), bag.getAvDir());
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreNoneNone() throws Exception {
+        Files.copy(filesXmlBackup, filesXmlPath, REPLACE_EXISTING);
+        for (var i = 0; i < entries; i += 10) {
+            var file = bag.getBagDir().resolve(SyntheticBag.filepath(i));
+            if (!Files.exists(file))
+                Files.createFile(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBag() throws Exception {
+        bag.delete();
+    }
+
+    @Benchmark
+    public FilesXml read(Throughput throughput) throws Exception {
+        throughput.processed(Files.size(filesXmlPath));
+        return FilesXml.read(filesXmlPath);
+    }
+
+    @Benchmark
+    public AVReplacer createAVReplacer() throws Exception {
+        return new AVReplacer(bag.getBagDir(), mapping, filesXml, bag.getBagDir());
+    }
+
+    @Benchmark
+    public Object removeNoneNone() {
+        return new BagVersion2(bag.getBagDir()).removeNoneNone(filesXml);
+    }
+}
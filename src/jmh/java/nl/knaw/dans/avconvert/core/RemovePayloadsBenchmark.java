@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops the NONE/NONE files from the plan of a revision with a large payload manifest, as the conversion does for revision 2. Only the payload
+ * manifest is generated, the payload files themselves are not needed to read the plan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RemovePayloadsBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int entries;
+
+    private Path bagDir;
+    private RevisionPlan plan;
+    private List<Path> noneNone;
+
+    @Setup(Level.Trial)
+    public void createPlan() throws Exception {
+        bagDir = Files.createTempDirectory("avconvert-jmh-");
+        Files.writeString(bagDir.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        noneNone = new ArrayList<>();
+        try (var writer = Files.newBufferedWriter(bagDir.resolve("manifest-sha1.txt"))) {
+            for (var i = 0; i < entries; i++) {
+                writer.write("0a4d55a8d778e5022fab701977c5d840bbc486d0  %s%n".formatted(SyntheticBag.filepath(i)));
+                if (SyntheticBag.isNoneNone(i))
+                    noneNone.add(Path.of(SyntheticBag.filepath(i)));
+            }
+        }
+        plan = RevisionPlan.read(bagDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBag() throws Exception {
+        FileUtils.deleteDirectory(bagDir.toFile());
+    }
+
+    @Benchmark
+    public RevisionPlan withoutPayloads() {
+        // the plan is not modified, the removal is applied to a copy
+        return plan.withoutPayloads(noneNone);
+    }
+}
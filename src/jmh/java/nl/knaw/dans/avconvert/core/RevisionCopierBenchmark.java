@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a revision of a bag with each copy strategy. Reflinks fall back to copies on a file system that does not support them, so compare
+ * REFLINK with the others on the file system of the output directory, for example with {@code -Djava.io.tmpdir}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RevisionCopierBenchmark {
+
+    @Param({ "10000:1024", "1000:1048576" })
+    public String layout;
+
+    @Param({ "COPY", "HARDLINK", "REFLINK" })
+    public CopyStrategy strategy;
+
+    private SyntheticBag bag;
+    private Path revision;
+    private BagInventory inventory;
+    private RevisionCopier copier;
+
+    @Setup(Level.Trial)
+    public void createBag() throws Exception {
+        bag = new SyntheticBag(layout).create();
+        revision = bag.getBagDir().resolveSibling("revision");
+        inventory = BagInventory.read(bag.getBagDir());
+        copier = new RevisionCopier(strategy);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteRevision() throws Exception {
+        FileUtils.deleteDirectory(revision.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBag() throws Exception {
+        bag.delete();
+    }
+
+    @Benchmark
+    public void copy(Throughput throughput) throws Exception {
+        copier.copy(bag.getBagDir(), inventory, revision);
+        throughput.processed(bag.getPayloadBytes());
+    }
+}
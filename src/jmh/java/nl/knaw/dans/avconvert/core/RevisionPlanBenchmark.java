@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the manifests of a revision from its plan: as the conversion does, with only the rewritten tag files hashed, and with all payload files
+ * hashed again, which bounds the cost of a revision in which all payload files are replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RevisionPlanBenchmark {
+
+    @Param({ "1000:1024", "100:1048576", "10:104857600", "2:2147483648" })
+    public String layout;
+
+    private SyntheticBag bag;
+    private ParallelHasher hasher;
+    private Map<Path, Map<SupportedAlgorithm, String>> allPayloadsWithoutChecksums;
+
+    @Setup(Level.Trial)
+    public void createBag() throws Exception {
+        bag = new SyntheticBag(layout).create();
+        hasher = new ParallelHasher(Runtime.getRuntime().availableProcessors());
+        allPayloadsWithoutChecksums = new HashMap<>();
+        var fileCount = Integer.parseInt(layout.split(":")[0]);
+        for (var i = 0; i < fileCount; i++) {
+            allPayloadsWithoutChecksums.put(Path.of(SyntheticBag.filepath(i)), Map.of());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBag() throws Exception {
+        bag.delete();
+    }
+
+    @Benchmark
+    public void readAndWrite() throws Exception {
+        RevisionPlan.read(bag.getBagDir()).write(bag.getBagDir(), hasher);
+    }
+
+    @Benchmark
+    public void rehashAllPayloads(Throughput throughput) throws Exception {
+        RevisionPlan.read(bag.getBagDir()).withPayloads(allPayloadsWithoutChecksums).write(bag.getBagDir(), hasher);
+        throughput.processed(bag.getPayloadBytes());
+    }
+}
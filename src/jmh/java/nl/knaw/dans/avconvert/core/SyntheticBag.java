@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates bags for the benchmarks: payload files with random content of a given size, a files.xml with an entry per payload file and
+ * valid sha1 manifests. Every tenth file is neither accessible nor visible, every other file is an AV file with an empty placeholder in the bag.
+ */
+public class SyntheticBag {
+
+    private static final List<SupportedAlgorithm> SHA1 = List.of(StandardSupportedAlgorithms.SHA1);
+    public static final String BAG_PARENT = "bag-parent";
+
+    private final Path root;
+    private final int fileCount;
+    private final long fileSize;
+
+    /**
+     * @param layout {@code <file count>:<file size in bytes>}
+     */
+    public SyntheticBag(String layout) throws IOException {
+        this(Integer.parseInt(layout.split(":")[0]), Long.parseLong(layout.split(":")[1]));
+    }
+
+    public SyntheticBag(int fileCount, long fileSize) throws IOException {
+        this.root = Files.createTempDirectory("avconvert-jmh-");
+        this.fileCount = fileCount;
+        this.fileSize = fileSize;
+    }
+
+    public Path getBagDir() {
+        return root.resolve("input").resolve(BAG_PARENT).resolve("bag");
+    }
+
+    public Path getAvDir() {
+        return root.resolve("av");
+    }
+
+    public Path getMappingCsv() {
+        return root.resolve("mapping.csv");
+    }
+
+    public long getPayloadBytes() {
+        return fileCount * fileSize;
+    }
+
+    public static String filepath(int i) {
+        return "data/file-%06d.bin".formatted(i);
+    }
+
+    public static boolean isAv(int i) {
+        return i % 2 == 1;
+    }
+
+    public static boolean isNoneNone(int i) {
+        return i % 10 == 0;
+    }
+
+    /**
+     * Creates a bag with all payload files filled.
+     */
+    public SyntheticBag create() throws IOException, NoSuchAlgorithmException {
+        return create(false);
+    }
+
+    /**
+     * Creates a bag with empty placeholders for the AV files, and the AV files with their content in the AV directory with a mapping.
+     */
+    public SyntheticBag createWithPlaceholders() throws IOException, NoSuchAlgorithmException {
+        return create(true);
+    }
+
+    private SyntheticBag create(boolean placeholders) throws IOException, NoSuchAlgorithmException {
+        var bagDir = getBagDir();
+        var random = new Random(fileCount);
+        Files.createDirectories(bagDir.resolve("data"));
+        Files.createDirectories(bagDir.resolve("metadata"));
+        var manifest = new StringBuilder();
+        var mapping = new StringBuilder("easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir\n");
+        for (var i = 0; i < fileCount; i++) {
+            var file = bagDir.resolve(filepath(i));
+            if (placeholders && isAv(i)) {
+                var avFile = getAvDir().resolve(BAG_PARENT).resolve("bag").resolve(filepath(i));
+                Files.createDirectories(avFile.getParent());
+                writeRandom(avFile, random);
+                Files.createFile(file);
+                mapping.append("file%d,dataset,%s/bag/%s,\n".formatted(i, BAG_PARENT, filepath(i)));
+            }
+            else {
+                writeRandom(file, random);
+            }
+            var sha1 = FileHasher.hash(file, SHA1).get(StandardSupportedAlgorithms.SHA1);
+            manifest.append("%s  %s%n".formatted(sha1, filepath(i)));
+        }
+        Files.writeString(bagDir.resolve("manifest-sha1.txt"), manifest);
+        Files.writeString(getMappingCsv(), mapping);
+        writeFilesXml(bagDir.resolve("metadata/files.xml"), fileCount);
+        Files.writeString(bagDir.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        Files.writeString(bagDir.resolve("bag-info.txt"), "Bagging-Date: 2024-01-01\n");
+        var tagManifest = new StringBuilder();
+        for (var tagFile : List.of("bagit.txt", "bag-info.txt", "manifest-sha1.txt", "metadata/files.xml")) {
+            var sha1 = FileHasher.hash(bagDir.resolve(tagFile), SHA1).get(StandardSupportedAlgorithms.SHA1);
+            tagManifest.append("%s  %s%n".formatted(sha1, tagFile));
+        }
+        Files.writeString(bagDir.resolve("tagmanifest-sha1.txt"), tagManifest);
+        return this;
+    }
+
+    public static void writeFilesXml(Path filesXml, int entries) throws IOException {
+        try (var writer = Files.newBufferedWriter(filesXml)) {
+            writer.write("""
+                <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/"
+                        xmlns:dct="http://purl.org/dc/terms/">
+                """);
+            for (var i = 0; i < entries; i++) {
+                var rights = isNoneNone(i) ? "NONE" : "ANONYMOUS";
+                var source = isAv(i) ? "<dct:source>https://example.org/%d</dct:source>".formatted(i) : "";
+                writer.write("""
+                      <file filepath="%s">
+                        <dct:identifier>file%d</dct:identifier>
+                        %s
+                        <accessibleToRights>%s</accessibleToRights>
+                        <visibleToRights>%s</visibleToRights>
+                      </file>
+                    """.formatted(filepath(i), i, source, rights, rights));
+            }
+            writer.write("</files>\n");
+        }
+    }
+
+    private void writeRandom(Path file, Random random) throws IOException {
+        var buffer = new byte[(int) Math.min(fileSize, 1024 * 1024)];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (var remaining = fileSize; remaining > 0; remaining -= buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(remaining, buffer.length));
+            }
+        }
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+}
@@ -16,15 +16,27 @@
 package nl.knaw.dans.avconvert;
 
 import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.avconvert.command.BatchCommand;
 import nl.knaw.dans.avconvert.command.ExampleCommand;
 import nl.knaw.dans.avconvert.config.AvConvertConfig;
+import nl.knaw.dans.avconvert.config.CopyEngineConfig;
+import nl.knaw.dans.avconvert.core.ChecksumCache;
+import nl.knaw.dans.avconvert.core.ContentStore;
+import nl.knaw.dans.avconvert.core.ConversionMetrics;
 import nl.knaw.dans.avconvert.core.Converter;
+import nl.knaw.dans.avconvert.core.CopyStrategy;
+import nl.knaw.dans.avconvert.core.MappingIndex;
+import nl.knaw.dans.avconvert.core.ParallelHasher;
 import nl.knaw.dans.lib.util.AbstractCommandLineApp;
 import nl.knaw.dans.lib.util.CliVersionProvider;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
 
 import java.nio.file.Path;
+import java.util.List;
 
 @Command(name = "convert-av-dataset",
          mixinStandardHelpOptions = true,
@@ -36,23 +48,35 @@ public class AvConvertCli extends AbstractCommandLineApp<AvConvertConfig> {
         new AvConvertCli().run(args);
     }
 
+    @Spec
+    private CommandSpec spec;
+
+    // the parameters are optional for picocli, otherwise they would also be required by the subcommands
     @CommandLine.Parameters(index = "0",
+                            arity = "0..1",
                             paramLabel = "INPUT_DIR",
                             description = "The directory containing the AV dataset.")
     private Path inputDir;
 
     @CommandLine.Parameters(index = "1",
+                            arity = "0..1",
                             paramLabel = "MAPPING_CSV",
                             description = "File with columns 'easy-file-id', 'path-in-AV-dir', 'path-in-springfield-dir'")
     private Path mapping;
 
     @CommandLine.Parameters(index = "2",
+                            arity = "0..1",
                             paramLabel = "OUTPUT_DIR",
                             description = "The directory where the converted dataset will be stored.")
     private Path outputDir;
 
     private Path avDir;
     private Path springfieldDir;
+    private CopyStrategy copyStrategy;
+    private CopyEngineConfig copyEngineConfig;
+    private Path contentStoreDir;
+    private Path checksumCacheDir;
+    private int numberOfHashingThreads;
 
     public String getName() {
         return "DD Convert AV Dataset";
@@ -63,12 +87,27 @@ public class AvConvertCli extends AbstractCommandLineApp<AvConvertConfig> {
         log.debug("Configuring command line");
         this.avDir = config.getAvDir();
         this.springfieldDir = config.getSpringfieldDir();
+        this.copyStrategy = config.getCopyStrategy();
+        this.copyEngineConfig = config.getCopyEngine();
+        this.contentStoreDir = config.getContentStoreDir();
+        this.checksumCacheDir = config.getChecksumCacheDir();
+        this.numberOfHashingThreads = config.getNumberOfHashingThreads();
         commandLine.addSubcommand(new ExampleCommand());
+        commandLine.addSubcommand(new BatchCommand(config));
     }
 
     @Override
-    public Integer call() {
-        new Converter().convert(inputDir, mapping, avDir, springfieldDir, outputDir);
+    public Integer call() throws Exception {
+        if (inputDir == null || mapping == null || outputDir == null) {
+            throw new ParameterException(spec.commandLine(), "Missing required parameters: INPUT_DIR, MAPPING_CSV, OUTPUT_DIR");
+        }
+        var checksumCache = checksumCacheDir == null ? null
+            : new ChecksumCache(checksumCacheDir.resolve("checksums.txt"), List.of(avDir, springfieldDir));
+        var copyEngine = copyEngineConfig.build(checksumCache);
+        var hasher = new ParallelHasher(numberOfHashingThreads, checksumCache);
+        var contentStore = contentStoreDir == null ? null : new ContentStore(contentStoreDir, copyEngine);
+        new Converter(MappingIndex.read(mapping, avDir, springfieldDir), copyStrategy, copyEngine, contentStore, hasher, new ConversionMetrics(), null)
+            .convert(inputDir, outputDir);
         return 0;
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.command;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.avconvert.config.AvConvertConfig;
+import nl.knaw.dans.avconvert.core.BagLeases;
+import nl.knaw.dans.avconvert.core.BagResult;
+import nl.knaw.dans.avconvert.core.BatchConverter;
+import nl.knaw.dans.avconvert.core.ChecksumCache;
+import nl.knaw.dans.avconvert.core.ContentStore;
+import nl.knaw.dans.avconvert.core.ConversionMetrics;
+import nl.knaw.dans.avconvert.core.Converter;
+import nl.knaw.dans.avconvert.core.DiskSpaceAdmission;
+import nl.knaw.dans.avconvert.core.MappingIndex;
+import nl.knaw.dans.avconvert.core.ParallelHasher;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static java.nio.file.Files.createDirectories;
+
+@Command(
+    name = "batch",
+    mixinStandardHelpOptions = true,
+    description = "Convert all AV datasets found in a directory laid out as <uuid>/<bag-uuid>.")
+@Slf4j
+public class BatchCommand implements Callable<Integer> {
+
+    private final AvConvertConfig config;
+
+    @Parameters(index = "0",
+                paramLabel = "INPUT_BAGS_DIR",
+                description = "The directory containing a subdirectory per AV dataset, each containing one bag.")
+    private Path inputBagsDir;
+
+    @Parameters(index = "1",
+                paramLabel = "MAPPING_CSV",
+                description = "File with columns 'easy-file-id', 'path-in-AV-dir', 'path-in-springfield-dir'")
+    private Path mapping;
+
+    @Parameters(index = "2",
+                paramLabel = "OUTPUT_DIR",
+                description = "The directory where the converted datasets will be stored.")
+    private Path outputDir;
+
+    @Option(names = { "-s", "--summary" },
+            paramLabel = "SUMMARY_CSV",
+            description = "File to write the result per bag to. Default: summary.csv in OUTPUT_DIR")
+    private Path summary;
+
+    @Option(names = { "-m", "--metrics" },
+            paramLabel = "METRICS_DIR",
+            description = "Directory to write the timings per bag and the aggregated metrics of the conversion stages to. Default: metrics in OUTPUT_DIR")
+    private Path metricsDir;
+
+    @Option(names = { "--dry-run" },
+            description = "Only check which bags can be converted, without writing to OUTPUT_DIR except for the summary.")
+    private boolean dryRun;
+
+    @Option(names = { "--verify" },
+            description = "Verify the manifests of the revisions of each bag after converting it. Bags that were converted before are only verified.")
+    private boolean verify;
+
+    @Option(names = { "--coordination-dir" },
+            paramLabel = "COORDINATION_DIR",
+            description = "Directory shared by several nodes converting the same INPUT_BAGS_DIR to the same OUTPUT_DIR. Each node converts the bags "
+                + "it claims a lease on. Every node ends with the summary of all nodes.")
+    private Path coordinationDir;
+
+    @Option(names = { "--node-id" },
+            paramLabel = "NODE_ID",
+            description = "The identifier of this node in the leases. Default: <pid>@<hostname>")
+    private String nodeId;
+
+    @Spec
+    private CommandSpec spec;
+
+    public BatchCommand(AvConvertConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if (dryRun && coordinationDir != null) {
+            throw new ParameterException(spec.commandLine(), "--dry-run cannot be combined with --coordination-dir");
+        }
+        var leases = coordinationDir == null ? null : new BagLeases(coordinationDir, getNodeId(), config.getLeaseTimeout().toMilliseconds());
+        try {
+            return run(leases);
+        }
+        finally {
+            if (leases != null)
+                leases.close();
+        }
+    }
+
+    private Integer run(BagLeases leases) throws Exception {
+        var metrics = new ConversionMetrics();
+        var checksumCacheDir = config.getChecksumCacheDir();
+        var checksumCache = checksumCacheDir == null ? null
+            : new ChecksumCache(checksumCacheDir.resolve("checksums.txt"), List.of(config.getAvDir(), config.getSpringfieldDir()));
+        var copyEngine = config.getCopyEngine().build(checksumCache);
+        var contentStoreDir = config.getContentStoreDir();
+        var converter = new Converter(
+            MappingIndex.read(mapping, config.getAvDir(), config.getSpringfieldDir()),
+            config.getCopyStrategy(),
+            copyEngine,
+            dryRun || contentStoreDir == null ? null : new ContentStore(contentStoreDir, copyEngine),
+            new ParallelHasher(config.getNumberOfHashingThreads(), checksumCache),
+            metrics,
+            dryRun ? null : new DiskSpaceAdmission(outputDir, config.getOutputDiskHeadroom().toBytes())
+        );
+        var maxBytesInFlight = config.getMaxBytesInFlight();
+        var batchConverter = new BatchConverter(
+            converter,
+            outputDir,
+            config.getNumberOfWorkers(),
+            maxBytesInFlight == null ? Long.MAX_VALUE : maxBytesInFlight.toBytes(),
+            leases
+        );
+        var interval = config.getMetricsReportingInterval();
+        var reporter = interval == null ? null : metrics.startConsoleReporter(interval.toMilliseconds());
+        List<BagResult> results;
+        try {
+            results = dryRun
+                ? batchConverter.checkAll(inputBagsDir)
+                : batchConverter.convertAll(inputBagsDir, verify);
+        }
+        finally {
+            if (reporter != null)
+                reporter.close();
+        }
+        if (!dryRun) {
+            var metricsReportDir = metricsDir == null ? outputDir.resolve("metrics") : metricsDir;
+            if (leases != null) {
+                // the timings of the bags converted by this node only
+                metricsReportDir = metricsReportDir.resolve(leases.getNodeId());
+            }
+            metrics.writeReport(metricsReportDir);
+            log.info("Metrics written to {}", metricsReportDir);
+        }
+        var summaryFile = summary == null ? outputDir.resolve("summary.csv") : summary;
+        createDirectories(summaryFile.toAbsolutePath().getParent());
+        BatchConverter.writeSummary(results, summaryFile);
+
+        var failed = results.stream().filter(result -> !result.success()).count();
+        log.info("{} {} bags, {} failed, see {}", dryRun ? "Checked" : "Converted", results.size() - failed, failed, summaryFile);
+        return failed == 0 ? 0 : 1;
+    }
+
+    private String getNodeId() throws Exception {
+        return nodeId != null ? nodeId : "%d@%s".formatted(ProcessHandle.current().pid(), InetAddress.getLocalHost().getHostName());
+    }
+}
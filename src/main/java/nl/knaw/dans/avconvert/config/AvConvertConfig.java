@@ -16,10 +16,14 @@
 package nl.knaw.dans.avconvert.config;
 
 import io.dropwizard.core.Configuration;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import nl.knaw.dans.avconvert.core.CopyStrategy;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.nio.file.Path;
 
@@ -34,4 +38,37 @@ public class AvConvertConfig extends Configuration {
     @Valid
     @NotNull
     private Path springfieldDir;
+
+    @Min(1)
+    private int numberOfWorkers = 1;
+
+    // the bytes to copy of the bags converted at the same time, estimated from files.xml, unlimited if null
+    private DataSize maxBytesInFlight;
+
+    // the usable space to leave in the output directory, a bag waits until its estimated output fits above it
+    @NotNull
+    private DataSize outputDiskHeadroom = DataSize.gibibytes(1);
+
+    @NotNull
+    private CopyStrategy copyStrategy = CopyStrategy.COPY;
+
+    @Valid
+    @NotNull
+    private CopyEngineConfig copyEngine = new CopyEngineConfig();
+
+    // AV files are copied into each bag if null
+    private Path contentStoreDir;
+
+    // no checksums are cached if null
+    private Path checksumCacheDir;
+
+    // a bag leased by a node that did not renew the lease for this long is taken over by another node, see batch --coordination-dir
+    @NotNull
+    private Duration leaseTimeout = Duration.minutes(5);
+
+    @Min(1)
+    private int numberOfHashingThreads = Runtime.getRuntime().availableProcessors();
+
+    // no periodic reporting if null
+    private Duration metricsReportingInterval;
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.config;
+
+import io.dropwizard.util.DataSize;
+import lombok.Data;
+import nl.knaw.dans.avconvert.core.ChecksumCache;
+import nl.knaw.dans.avconvert.core.CopyEngine;
+import nl.knaw.dans.avconvert.core.FsyncMode;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+@Data
+public class CopyEngineConfig {
+
+    @NotNull
+    private DataSize bufferSize = DataSize.bytes(CopyEngine.DEFAULT_BUFFER_SIZE);
+
+    // sets the length of a copy before writing it, which creates a sparse file and reserves no blocks
+    private boolean extendToFinalSize = false;
+
+    @NotNull
+    private FsyncMode fsync = FsyncMode.NONE;
+
+    @Min(1)
+    private int maxCopiesPerDevice = 1;
+
+    public CopyEngine build() {
+        return build(null);
+    }
+
+    public CopyEngine build(ChecksumCache checksumCache) {
+        return new CopyEngine(Math.toIntExact(bufferSize.toBytes()), extendToFinalSize, fsync, maxCopiesPerDevice, checksumCache);
+    }
+}
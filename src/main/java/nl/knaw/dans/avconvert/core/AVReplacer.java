@@ -15,68 +15,101 @@
  */
 package nl.knaw.dans.avconvert.core;
 
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.io.FileUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringWriter;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import static java.util.stream.Collectors.toSet;
 import static org.apache.commons.lang3.ObjectUtils.isEmpty;
-import static org.apache.commons.lang3.ObjectUtils.isNotEmpty;
 
 @Slf4j
 public class AVReplacer {
 
     private final Path bagDir;
-    private final Path avDir;
-    private final Map<String, Path> fileIdToExternalLocationMap;
+    private final MappingIndex mapping;
     private final Map<String, Path> fileIdToBagLocationMap;
-    private final String parentOfInputBag;
+    private final FileCopier copier;
+
+    /**
+     * @param bagDir   the bag to replace the AV files in
+     * @param inputBag the bag that was copied to bagDir, its empty files are the placeholders to replace. As the input bag is never modified,
+     *                 replacing can be repeated on a partially replaced bagDir.
+     */
+    public AVReplacer(Path bagDir, MappingIndex mapping, FilesXml filesXml, Path inputBag)
+        throws IOException {
+        this(bagDir, mapping, filesXml, inputBag, new CopyEngine());
+    }
 
-    public AVReplacer(Path bagDir, Path csv, Path avDir, Document filesXml, Path parentOfInputBag)
+    public AVReplacer(Path bagDir, MappingIndex mapping, FilesXml filesXml, Path inputBag, FileCopier copier)
         throws IOException {
+        this(bagDir, mapping, filesXml, inputBag, BagInventory.read(inputBag), copier);
+    }
+
+    /**
+     * @param inputInventory the inventory of the input bag, to find the placeholders without reading their sizes from the file system
+     * @param copier         a {@link CopyEngine}, or a {@link ContentStore} to link AV files that were copied before
+     */
+    public AVReplacer(Path bagDir, MappingIndex mapping, FilesXml filesXml, Path inputBag, BagInventory inputInventory, FileCopier copier)
+        throws IOException {
+        this(bagDir, mapping, getIdentifierToDestMap(filesXml, inputInventory), copier);
+        crossCheckReplacedMapped(mapping, inputBag, fileIdToBagLocationMap.keySet());
+    }
 
+    /**
+     * Without the cross-check of the placeholders with the mapping, for a bag that passed the {@link Preflight}.
+     *
+     * @param fileIdToBagLocationMap the placeholders as found by {@link #getIdentifierToDestMap(FilesXml, BagInventory)}
+     */
+    AVReplacer(Path bagDir, MappingIndex mapping, Map<String, Path> fileIdToBagLocationMap, FileCopier copier) {
         this.bagDir = bagDir;
-        this.avDir = avDir;
-        fileIdToExternalLocationMap = readCSV(csv);
-        fileIdToBagLocationMap = getIdentifierToDestMap(filesXml);
-        this.parentOfInputBag = parentOfInputBag.getFileName().toString();
-        crossCheckReplacedMapped();
+        this.copier = copier;
+        this.mapping = mapping;
+        this.fileIdToBagLocationMap = fileIdToBagLocationMap;
     }
 
-    @SneakyThrows
-    public void replaceAVFiles() {
-        fileIdToBagLocationMap.keySet().forEach(this::replaceFile);
+    /**
+     * Copies the AV files into the bag, calculating the checksums for the payload manifests of the bag on the fly. The files are copied concurrently as
+     * far as the {@link CopyEngine} allows, a failing file does not stop the others. A {@link ContentStore} only copies and hashes files it does not
+     * have yet.
+     *
+     * @return the replaced files, relative to the bag, with their checksums
+     * @throws IOException reporting all files that could not be replaced
+     */
+    public Map<Path, Map<SupportedAlgorithm, String>> replaceAVFiles() throws IOException {
+        Map<Path, Path> sources = new HashMap<>();
+        for (var entry : fileIdToBagLocationMap.entrySet()) {
+            var externalLocation = mapping.get(entry.getKey()).map(MappingIndex.Entry::pathInAvDir).orElse(null);
+            if (isEmpty(externalLocation)) {
+                log.warn("No external location found for: {}", entry.getKey());
+            }
+            else {
+                // the placeholder may be a hard link to the input bag, copyAll replaces it rather than writing through it
+                sources.put(bagDir.resolve(entry.getValue()), externalLocation);
+            }
+        }
+        Map<Path, Map<SupportedAlgorithm, String>> replacedFiles = new HashMap<>();
+        copier.copyAll(sources, RevisionPlan.getPayloadAlgorithms(bagDir))
+            .forEach((target, checksums) -> replacedFiles.put(bagDir.relativize(target), checksums));
+        return replacedFiles;
     }
 
-    private void crossCheckReplacedMapped() throws IOException {
-        var bagParent = parentOfInputBag;
-        var replacedFileIds = fileIdToBagLocationMap.keySet();
-        var mappedFileIds = new HashSet<>(fileIdToExternalLocationMap.keySet().stream()
-            // when reading the csv, the values are prefixed with the avDir, so we can't use startsWith,
-            // the bagParent is supposed to be a UUID hence unique
-            .filter(kv -> fileIdToExternalLocationMap.get(kv).toString().contains(bagParent))
-            .toList()
-        );
+    /**
+     * Checks that the placeholders of the input bag are exactly the files mapped for its parent directory, and that the mapped AV files exist.
+     *
+     * @throws IllegalStateException if they do not match, or an AV file is missing
+     */
+    static void crossCheckReplacedMapped(MappingIndex mapping, Path inputBag, Set<String> replacedFileIds) {
+        var bagParent = inputBag.getParent().getFileName().toString();
+        var mappedFiles = mapping.getByBagParent(bagParent);
+        var mappedFileIds = mappedFiles.stream()
+            .map(MappingIndex.Entry::fileId)
+            .collect(toSet());
 
         // Create sets for the differences
         Set<String> onlyInMapping = new HashSet<>(mappedFileIds);
@@ -89,98 +122,38 @@ public class AVReplacer {
             log.error("Elements in fileIdsInMapping but not in replacedFileIds: {} {}", bagParent, onlyInMapping);
         if (!onlyInReplaced.isEmpty())
             log.error("Elements in replacedFileIds but not in fileIdsInMapping: {} {}", bagParent, onlyInReplaced);
-        try {
-            if (!onlyInReplaced.isEmpty() || !onlyInMapping.isEmpty())
-                throw new IllegalStateException("Mapping and replaced files do not match");
-
-            mappedFileIds.forEach(id -> {
-                var path = fileIdToExternalLocationMap.get(id);
-                if (!path.toFile().exists()) {
-                    var msg = "File %s not found: %s".formatted(id, path);
-                    log.error(msg);
-                    throw new IllegalStateException(msg);
-                }
-            });
-        }
-        catch (IllegalStateException e) {
-            // TODO call constructor before creating copy of the bag
-            FileUtils.deleteDirectory(bagDir.toFile());
-            throw e;
-        }
-
-    }
-
-    private void replaceFile(String key) {
-        var externalLocation = fileIdToExternalLocationMap.get(key);
-        if (isEmpty(externalLocation)) {
-            log.warn("No external location found for: {}", key);
-        }
-        else {
-            try {
-                FileUtils.copyFile(
-                    externalLocation.toFile(),
-                    bagDir
-                        .resolve(fileIdToBagLocationMap.get(key))
-                        .toFile()
-                );
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
-
-    private Map<String, Path> readCSV(Path filePath) throws IOException {
-        Map<String, Path> records = new HashMap<>();
-        try (Reader reader = Files.newBufferedReader(filePath);
-            CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withHeader())) {
-
-            for (CSVRecord csvRecord : csvParser) {
-                var pathInAvDir = csvRecord.get("path_in_AV_dir");
-                if (isNotEmpty(pathInAvDir))
-                    records.put(csvRecord.get("easy_file_id"), avDir.resolve(pathInAvDir));
-                else
-                    log.warn("No AV path found for: {}", csvRecord);
+        if (!onlyInReplaced.isEmpty() || !onlyInMapping.isEmpty())
+            throw new IllegalStateException("Mapping and replaced files do not match");
+
+        mappedFiles.forEach(entry -> {
+            var path = entry.pathInAvDir();
+            if (!path.toFile().exists()) {
+                var msg = "File %s not found: %s".formatted(entry.fileId(), path);
+                log.error(msg);
+                throw new IllegalStateException(msg);
             }
-        }
-        return records;
+        });
     }
 
-    private Map<String, Path> getIdentifierToDestMap(Document filesXml) throws IOException {
+    /**
+     * @return the file identifiers of the placeholders (the empty files with a source in files.xml) of the input bag with their paths in the bag
+     */
+    static Map<String, Path> getIdentifierToDestMap(FilesXml filesXml, BagInventory inputInventory) throws IOException {
         Map<String, Path> identifierToDestMap = new HashMap<>();
 
-        var fileNodes = filesXml.getElementsByTagName("file");
-        for (int i = 0; i < fileNodes.getLength(); i++) {
-            var fileElement = (Element) fileNodes.item(i);
-            if (fileElement.getElementsByTagName("dct:source").getLength() > 0) {
-                NodeList identifierNodes = fileElement.getElementsByTagName("dct:identifier");
-                if (identifierNodes.getLength() == 0) {
-                    log.error("No <dct:identifier> found in: {}", serializeNode(fileElement));
+        for (var file : filesXml.getFiles()) {
+            if (file.source() != null) {
+                if (file.identifier() == null) {
+                    log.error("No <dct:identifier> found in: {}", file);
                 }
-                else {
-                    var filePath = fileElement.getAttribute("filepath");
-                    if (isEmpty(filePath)) {
-                        log.error("No filepath attribute found in: {}", serializeNode(fileElement));
-                    }
-                    else if (0 == Files.size(bagDir.resolve(filePath))) {
-                        var identifier = identifierNodes.item(0).getTextContent();
-                        identifierToDestMap.put(identifier, Path.of(filePath));
-                    }
+                else if (isEmpty(file.filepath())) {
+                    log.error("No filepath attribute found in: {}", file);
+                }
+                else if (0 == inputInventory.get(Path.of(file.filepath())).size()) {
+                    identifierToDestMap.put(file.identifier(), Path.of(file.filepath()));
                 }
             }
         }
         return identifierToDestMap;
     }
-
-    private static String serializeNode(Node node) {
-        try {
-            StringWriter sw = new StringWriter();
-            Transformer t = TransformerFactory.newInstance().newTransformer();
-            t.transform(new DOMSource(node), new StreamResult(sw));
-            return sw.toString();
-        }
-        catch (Exception e) {
-            return e.getMessage();
-        }
-    }
 }
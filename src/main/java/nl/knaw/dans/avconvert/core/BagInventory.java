@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The directories and files of a bag with their sizes and last modified times, from a single walk. The stages of a conversion consult the inventory
+ * of the input bag and update it with the few files they change, instead of walking and stat'ing each revision again. On network file systems those
+ * metadata round trips dominate the conversion of bags with many small files. The checksums of the files are kept by {@link RevisionPlan}.
+ * <p>
+ * The paths are relative to the bag. An inventory is not modified, the update methods return a new one.
+ */
+public class BagInventory {
+
+    public record FileInfo(long size, FileTime lastModified) {
+    }
+
+    // ordered, so a directory comes before its subdirectories
+    private final SortedSet<Path> directories;
+    private final SortedMap<Path, FileInfo> files;
+
+    private BagInventory(SortedSet<Path> directories, SortedMap<Path, FileInfo> files) {
+        this.directories = directories;
+        this.files = files;
+    }
+
+    public static BagInventory read(Path bagDir) throws IOException {
+        SortedSet<Path> directories = new TreeSet<>();
+        SortedMap<Path, FileInfo> files = new TreeMap<>();
+        Files.walkFileTree(bagDir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                directories.add(bagDir.relativize(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(bagDir.relativize(file), new FileInfo(attrs.size(), attrs.lastModifiedTime()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new BagInventory(directories, files);
+    }
+
+    public SortedSet<Path> getDirectories() {
+        return Collections.unmodifiableSortedSet(directories);
+    }
+
+    public SortedMap<Path, FileInfo> getFiles() {
+        return Collections.unmodifiableSortedMap(files);
+    }
+
+    /**
+     * @throws NoSuchFileException if the file is not in the bag
+     */
+    public FileInfo get(Path file) throws NoSuchFileException {
+        var info = files.get(file.normalize());
+        if (info == null)
+            throw new NoSuchFileException(file.toString());
+        return info;
+    }
+
+    public long getTotalSize() {
+        return files.values().stream().mapToLong(FileInfo::size).sum();
+    }
+
+    /**
+     * Reads the attributes of only the given files, in the copy of the bag they were changed in.
+     *
+     * @param bagDir the copy of the bag
+     * @param changedFiles files that were replaced or added, a file that no longer exists is removed from the inventory
+     * @return the inventory of the copy
+     */
+    public BagInventory withUpdated(Path bagDir, Collection<Path> changedFiles) throws IOException {
+        var newDirectories = new TreeSet<>(directories);
+        var newFiles = new TreeMap<>(files);
+        for (var file : changedFiles) {
+            var path = file.normalize();
+            var absolutePath = bagDir.resolve(path);
+            if (Files.exists(absolutePath)) {
+                var attrs = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+                newFiles.put(path, new FileInfo(attrs.size(), attrs.lastModifiedTime()));
+                for (var dir = path.getParent(); dir != null; dir = dir.getParent()) {
+                    newDirectories.add(dir);
+                }
+            }
+            else {
+                newFiles.remove(path);
+            }
+        }
+        return new BagInventory(newDirectories, newFiles);
+    }
+
+    /**
+     * @return the inventory without the deleted files, their directories are kept
+     */
+    public BagInventory without(Collection<Path> deletedFiles) {
+        var newFiles = new TreeMap<>(files);
+        deletedFiles.forEach(file -> newFiles.remove(file.normalize()));
+        return new BagInventory(new TreeSet<>(directories), newFiles);
+    }
+}
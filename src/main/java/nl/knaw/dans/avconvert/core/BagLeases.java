@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Divides the bags of a batch between nodes that share a coordination directory, without a coordinator service. A node claims a bag by creating its
+ * lease file {@code leases/<bag-uuid>} exclusively, and keeps it alive by touching it every quarter of the lease timeout. A lease that was not touched
+ * for the lease timeout is left by a crashed node, the first node that creates the marker {@code leases/<bag-uuid>.reclaim} replaces it; the
+ * conversion resumes from the {@link Journal} in the shared output directory. The node that lost the lease interrupts its conversion of the bag,
+ * which checks the lease before each step that writes to the output, see {@link #checkHeld(Path)}, and does not record a result. When a bag is
+ * converted, its result is written to {@code results/<bag-uuid>.csv} before the lease is deleted, so a converted bag is never claimed again. The
+ * result of a bag that failed is written to {@code failures/<bag-uuid>.csv} instead: it counts as done for the nodes that started before it was
+ * written, a later run claims the bag again.
+ * <p>
+ * The expiry is judged by the modification times set by the nodes, so their clocks must agree within a small fraction of the lease timeout.
+ */
+@Slf4j
+public class BagLeases implements AutoCloseable {
+
+    private final Path leasesDir;
+    private final Path resultsDir;
+    private final Path failuresDir;
+    private final String nodeId;
+    private final long leaseTimeoutMillis;
+    // in whole seconds, as some file systems record the modification times of the failures
+    private final long startedAtMillis = System.currentTimeMillis() / 1000 * 1000;
+    // the thread converting the bag per held lease
+    private final Map<Path, Thread> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    public BagLeases(Path coordinationDir, String nodeId, long leaseTimeoutMillis) throws IOException {
+        this.leasesDir = coordinationDir.resolve("leases");
+        this.resultsDir = coordinationDir.resolve("results");
+        this.failuresDir = coordinationDir.resolve("failures");
+        this.nodeId = nodeId;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        Files.createDirectories(leasesDir);
+        Files.createDirectories(resultsDir);
+        Files.createDirectories(failuresDir);
+        var interval = getPollIntervalMillis();
+        heartbeat.scheduleWithFixedDelay(this::touchAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the interval at which the held leases are touched, and at which an idle node checks the leases of the other nodes
+     */
+    public long getPollIntervalMillis() {
+        return leaseTimeoutMillis / 4;
+    }
+
+    /**
+     * Claims the bag for this node. The calling thread converts the bag, it is interrupted when the lease is lost, and must call
+     * {@link #complete(BagResult)} when it is done.
+     *
+     * @return false if the bag is finished, or leased by another node that is alive
+     */
+    public boolean tryAcquire(Path inputBag) throws IOException {
+        if (isDone(inputBag))
+            return false;
+        var lease = getLease(inputBag);
+        if (!publish(lease) && !reclaimExpired(inputBag, lease))
+            return false;
+        if (isDone(inputBag)) {
+            // finished by another node between the check and the creation of the lease
+            Files.deleteIfExists(lease);
+            return false;
+        }
+        held.put(inputBag, Thread.currentThread());
+        log.debug("Acquired lease on {}", inputBag);
+        return true;
+    }
+
+    /**
+     * Creates the lease with the id of this node in it. The id is written to a temporary file that is linked to the lease, so that the other nodes
+     * never see an empty lease.
+     *
+     * @return false if the lease exists
+     */
+    private boolean publish(Path lease) throws IOException {
+        var tmpFile = leasesDir.resolve("%s.tmp-%s".formatted(lease.getFileName(), UUID.randomUUID()));
+        Files.writeString(tmpFile, nodeId, UTF_8);
+        try {
+            Files.createLink(lease, tmpFile);
+            return true;
+        }
+        catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        finally {
+            Files.delete(tmpFile);
+        }
+    }
+
+    /**
+     * Replaces an expired lease with one of this node. Of the nodes that find the lease expired, only the one that creates the marker checks it again
+     * and replaces it. The lease is never moved aside, so a node that still holds it never finds it missing, and a lease created in the meantime by
+     * another node is never overwritten.
+     */
+    private boolean reclaimExpired(Path inputBag, Path lease) throws IOException {
+        if (!isExpired(lease))
+            return false;
+        var marker = leasesDir.resolve(lease.getFileName() + ".reclaim");
+        try {
+            Files.createFile(marker);
+        }
+        catch (FileAlreadyExistsException e) {
+            if (isExpired(marker)) {
+                // like the leases, this assumes that a node does not stall for the lease timeout while it reclaims
+                log.warn("Removing {}, left by a node that crashed while reclaiming {}", marker, inputBag);
+                Files.deleteIfExists(marker);
+            }
+            return false;
+        }
+        try {
+            // reclaimed by another node, which removed its marker, since the check above
+            if (!isExpired(lease))
+                return false;
+            log.warn("Reclaiming {} from node {}, its lease expired at {}", inputBag, Files.readString(lease, UTF_8), Files.getLastModifiedTime(lease));
+            Files.delete(lease);
+            return publish(lease);
+        }
+        catch (NoSuchFileException e) {
+            // released in the meantime, the bag is finished or claimed again on the next attempt
+            return false;
+        }
+        finally {
+            Files.deleteIfExists(marker);
+        }
+    }
+
+    private boolean isExpired(Path file) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() >= leaseTimeoutMillis;
+        }
+        catch (NoSuchFileException e) {
+            // released in the meantime, the bag is finished or claimed again on the next attempt
+            return false;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if this node no longer holds the lease on the bag, because it expired and another node took the bag over
+     */
+    public void checkHeld(Path inputBag) throws IOException {
+        if (!held.containsKey(inputBag) || !isOwn(getLease(inputBag)))
+            throw new IllegalStateException("Lost the lease on %s to another node".formatted(inputBag));
+    }
+
+    /**
+     * Records the result of the bag for all nodes and releases its lease, if this node still holds it. Otherwise the node that took the bag over
+     * records its own result.
+     *
+     * @return false if the lease was lost
+     */
+    public boolean complete(BagResult result) throws IOException {
+        var inputBag = result.inputBag();
+        synchronized (held) {
+            held.remove(inputBag);
+            // the interrupt by which a lost lease aborted the conversion, the worker goes on with the next bag
+            Thread.interrupted();
+        }
+        var lease = getLease(inputBag);
+        if (!isOwn(lease)) {
+            log.warn("Not recording the result of {}, its lease was taken over by another node", inputBag);
+            return false;
+        }
+        if (result.success()) {
+            BatchConverter.writeSummary(List.of(result), getResultFile(inputBag));
+            Files.deleteIfExists(getFailureFile(inputBag));
+        }
+        else {
+            BatchConverter.writeSummary(List.of(result), getFailureFile(inputBag));
+        }
+        Files.deleteIfExists(lease);
+        log.debug("Released lease on {}", inputBag);
+        return true;
+    }
+
+    /**
+     * @return true if the bag was converted, or failed since this node started
+     */
+    public boolean isDone(Path inputBag) {
+        if (Files.exists(getResultFile(inputBag)))
+            return true;
+        try {
+            return Files.getLastModifiedTime(getFailureFile(inputBag)).toMillis() >= startedAtMillis;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Merges the results of all nodes.
+     *
+     * @return the results of the bags that are finished, in the order of the bags
+     */
+    public List<BagResult> readResults(List<Path> inputBags) throws IOException {
+        List<BagResult> results = new ArrayList<>();
+        for (var inputBag : inputBags) {
+            var resultFile = getResultFile(inputBag);
+            if (!Files.exists(resultFile))
+                resultFile = getFailureFile(inputBag);
+            if (!Files.exists(resultFile))
+                continue;
+            try (var reader = Files.newBufferedReader(resultFile); var parser = new CSVParser(reader, CSVFormat.DEFAULT.withHeader())) {
+                for (var record : parser) {
+                    // the path of this node, the nodes may mount the input bags at different paths
+                    results.add(new BagResult(
+                        inputBag,
+                        "OK".equals(record.get("status")),
+                        record.get("message"),
+                        Long.parseLong(record.get("duration_ms"))
+                    ));
+                }
+            }
+        }
+        return results;
+    }
+
+    private void touchAll() {
+        for (var inputBag : held.keySet()) {
+            var lease = getLease(inputBag);
+            try {
+                if (!isOwn(lease)) {
+                    throw new IllegalStateException("leased by another node");
+                }
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (Exception e) {
+                // not touching it again, the conversion is aborted before it writes more, see checkHeld
+                synchronized (held) {
+                    var worker = held.remove(inputBag);
+                    if (worker != null) { // otherwise completed in the meantime
+                        log.error("Lost the lease on {}, aborting its conversion: {}", inputBag, e.getMessage());
+                        worker.interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isOwn(Path lease) throws IOException {
+        try {
+            return nodeId.equals(Files.readString(lease, UTF_8));
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private Path getLease(Path inputBag) {
+        return leasesDir.resolve(inputBag.getFileName().toString());
+    }
+
+    private Path getResultFile(Path inputBag) {
+        return resultsDir.resolve(inputBag.getFileName() + ".csv");
+    }
+
+    private Path getFailureFile(Path inputBag) {
+        return failuresDir.resolve(inputBag.getFileName() + ".csv");
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+    }
+}
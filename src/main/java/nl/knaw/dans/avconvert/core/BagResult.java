@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import java.nio.file.Path;
+
+public record BagResult(Path inputBag, boolean success, String message, long durationMillis) {
+
+    public static BagResult success(Path inputBag, long durationMillis) {
+        return new BagResult(inputBag, true, "", durationMillis);
+    }
+
+    public static BagResult failure(Path inputBag, Throwable cause, long durationMillis) {
+        var message = cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+        return new BagResult(inputBag, false, message, durationMillis);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.bagit.domain.Manifest;
+import nl.knaw.dans.bagit.exceptions.InvalidBagitFileFormatException;
+import nl.knaw.dans.bagit.exceptions.MaliciousPathException;
+import nl.knaw.dans.bagit.exceptions.UnparsableVersionException;
+import nl.knaw.dans.bagit.exceptions.UnsupportedAlgorithmException;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+import nl.knaw.dans.bagit.reader.BagReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Verifies the payload and tag manifests of a bag in-process: every file in a manifest must have the listed checksums and every payload file must be
+ * listed in all payload manifests. The files are hashed in parallel by the {@link ParallelHasher}, which skips the files that were hashed while they
+ * were copied in this run, see {@link ChecksumCache#remember}. The first mismatch stops the verification.
+ */
+@Slf4j
+public class BagVerifier {
+
+    private final ParallelHasher hasher;
+
+    public BagVerifier(ParallelHasher hasher) {
+        this.hasher = hasher;
+    }
+
+    /**
+     * @return the number of bytes of the files in the manifests
+     * @throws IllegalStateException if the bag is not valid
+     */
+    public long verify(Path bagDir)
+        throws IOException, NoSuchAlgorithmException, MaliciousPathException, UnparsableVersionException, UnsupportedAlgorithmException, InvalidBagitFileFormatException {
+        log.debug("Verifying {}", bagDir);
+        var bag = new BagReader().read(bagDir);
+        var payloadDir = bag.getRootDir().resolve("data");
+        if (Files.exists(payloadDir)) {
+            try (Stream<Path> files = Files.walk(payloadDir)) {
+                for (var file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    for (var manifest : bag.getPayLoadManifests()) {
+                        if (!manifest.getFileToChecksumMap().containsKey(file)) {
+                            throw new IllegalStateException("%s is not in the %s payload manifest of %s"
+                                .formatted(file, manifest.getAlgorithm().getBagitName(), bagDir));
+                        }
+                    }
+                }
+            }
+        }
+        Map<Path, Map<SupportedAlgorithm, String>> expected = new HashMap<>();
+        addChecksums(expected, bag.getPayLoadManifests());
+        addChecksums(expected, bag.getTagManifests());
+        var size = 0L;
+        for (var file : expected.keySet()) {
+            if (!Files.isRegularFile(file))
+                throw new IllegalStateException("File %s in the manifests of %s not found".formatted(file, bagDir));
+            size += Files.size(file);
+        }
+        hasher.verify(expected);
+        return size;
+    }
+
+    private static void addChecksums(Map<Path, Map<SupportedAlgorithm, String>> expected, Iterable<Manifest> manifests) {
+        for (var manifest : manifests) {
+            manifest.getFileToChecksumMap().forEach((file, checksum) ->
+                expected.computeIfAbsent(file, key -> new HashMap<>()).put(manifest.getAlgorithm(), checksum));
+        }
+    }
+}
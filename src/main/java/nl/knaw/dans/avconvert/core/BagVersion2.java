@@ -16,68 +16,56 @@
 package nl.knaw.dans.avconvert.core;
 
 import lombok.SneakyThrows;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 public class BagVersion2 {
 
-    private final Path bagDir;
+    protected final Path bagDir;
 
     public BagVersion2(Path bagDir) {
         this.bagDir = bagDir;
     }
 
+    /**
+     * Deletes the files that are neither accessible nor visible and streams files.xml of the bag without their file elements in a single pass. The
+     * given model is not modified, {@link FilesXml#withoutNoneNone()} gives the matching view.
+     *
+     * @return the removed files, relative to the bag
+     */
     @SneakyThrows
-    public List<Path> removeNoneNone(Document filesXml) {
+    public Set<Path> removeNoneNone(FilesXml filesXml) {
 
-        List<Path> filesWithNoneNone = new ArrayList<>();
-        NodeList fileList = filesXml.getElementsByTagName("file");
-        for (int i = 0; i < fileList.getLength(); i++) {
-            Element fileElement = (Element) fileList.item(i);
-            if (isNone(fileElement, "accessibleToRights") && isNone(fileElement, "visibleToRights")) {
-                var filepath = fileElement.getAttribute("filepath");
-                filesWithNoneNone.add(Path.of(filepath));
-                fileElement.getParentNode().removeChild(fileElement);
-                var file = bagDir.resolve(filepath).toFile();
-                if (!file.delete()) {
-                    throw new IOException("Could not delete " + file);
+        Set<Path> filesWithNoneNone = new HashSet<>();
+        Set<String> filepaths = new HashSet<>();
+        for (var file : filesXml.getNoneNone()) {
+            if (file.filepath() != null) {
+                filesWithNoneNone.add(Path.of(file.filepath()));
+                filepaths.add(file.filepath());
+                var path = bagDir.resolve(file.filepath()).toFile();
+                if (!path.delete()) {
+                    throw new IOException("Could not delete " + path);
                 }
-                // Since we're modifying the list we're iterating over, decrement i to adjust for the next iteration.
-                i--;
             }
         }
-        Writer writer = new FileWriter(bagDir.resolve("metadata").resolve("files.xml").toFile());
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.transform(new DOMSource(filesXml), new StreamResult(writer));
+        var filesXmlPath = bagDir.resolve("metadata").resolve("files.xml");
+        FilesXml.writeWithout(filesXmlPath, filesXmlPath, filepaths);
         return filesWithNoneNone;
     }
 
-    private static boolean isNone(Node fileElement, String tag) {
-        var elements = ((Element) fileElement).getElementsByTagName(tag);
-        if (elements.getLength() == 0)
-            return true;
-        return "NONE".equals(elements.item(0).getTextContent());
-    }
-
+    /**
+     * Sets Is-Version-Of in bag-info.txt, replacing the value inherited from the revision the bag was copied from.
+     */
     public void addVersionOf(String previousVersion) throws IOException {
-        Files.writeString(bagDir.resolve("bag-info.txt"),
-            "Is-Version-Of: urn:uuid:" + previousVersion + System.lineSeparator(),
-            StandardOpenOption.APPEND
-        );
+        var bagInfo = bagDir.resolve("bag-info.txt");
+        var lines = new ArrayList<>(Files.readAllLines(bagInfo));
+        lines.removeIf(line -> line.startsWith("Is-Version-Of:"));
+        lines.add("Is-Version-Of: urn:uuid:" + previousVersion);
+        Files.writeString(bagInfo, String.join(System.lineSeparator(), lines) + System.lineSeparator());
     }
 }
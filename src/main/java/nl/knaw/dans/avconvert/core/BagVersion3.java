@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.SneakyThrows;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The revision with playable copies: Springfield renditions of the mapped files, added next to the original with the extension of the rendition. If
+ * the bag already has a file at that path, for example an mp4 original, the rendition substitutes it.
+ */
+public class BagVersion3 extends BagVersion2 {
+
+    private final CopyEngine copyEngine;
+
+    public BagVersion3(Path bagDir) {
+        this(bagDir, new CopyEngine());
+    }
+
+    public BagVersion3(Path bagDir, CopyEngine copyEngine) {
+        super(bagDir);
+        this.copyEngine = copyEngine;
+    }
+
+    public static boolean hasSpringfieldFiles(FilesXml filesXml, MappingIndex mapping) {
+        return filesXml.getFiles().stream().anyMatch(file -> getSpringfieldFile(file, mapping).isPresent());
+    }
+
+    /**
+     * Copies the Springfield files into the bag, calculating the checksums for the payload manifests on the fly, and adds file elements to files.xml
+     * for the files that were not yet in the bag.
+     *
+     * @param filesXml the files of the bag
+     * @return the added or substituted files, relative to the bag, with their checksums
+     */
+    @SneakyThrows
+    public Map<Path, Map<SupportedAlgorithm, String>> addSpringfieldFiles(FilesXml filesXml, MappingIndex mapping) {
+        Map<Path, Path> sources = new HashMap<>();
+        List<FilesXml.AddedFile> addedFiles = new ArrayList<>();
+        for (var file : filesXml.getFiles()) {
+            var springfieldFile = getSpringfieldFile(file, mapping);
+            if (springfieldFile.isEmpty())
+                continue;
+            var filepath = replaceExtension(file.filepath(), springfieldFile.get());
+            // the file may be a hard link to the previous revision, copyAll deletes it rather than writing through it
+            sources.put(bagDir.resolve(filepath), springfieldFile.get());
+            if (filesXml.getByFilepath(filepath).isEmpty()) {
+                addedFiles.add(new FilesXml.AddedFile(filepath, getFormat(springfieldFile.get()), file.rights()));
+            }
+        }
+        Map<Path, Map<SupportedAlgorithm, String>> copiedFiles = new HashMap<>();
+        copyEngine.copyAll(sources, RevisionPlan.getPayloadAlgorithms(bagDir))
+            .forEach((target, checksums) -> copiedFiles.put(bagDir.relativize(target), checksums));
+        if (!addedFiles.isEmpty()) {
+            var filesXmlPath = bagDir.resolve("metadata").resolve("files.xml");
+            FilesXml.rewrite(filesXmlPath, filesXmlPath, Set.of(), addedFiles);
+        }
+        return copiedFiles;
+    }
+
+    static Optional<Path> getSpringfieldFile(FilesXml.FileEntry file, MappingIndex mapping) {
+        if (file.identifier() == null || file.filepath() == null)
+            return Optional.empty();
+        return mapping.get(file.identifier()).map(MappingIndex.Entry::pathInSpringfieldDir);
+    }
+
+    private static String replaceExtension(String filepath, Path springfieldFile) {
+        var springfieldName = springfieldFile.getFileName().toString();
+        var extension = springfieldName.substring(springfieldName.lastIndexOf('.') + 1);
+        var fileName = Path.of(filepath).getFileName().toString();
+        var dot = fileName.lastIndexOf('.');
+        var baseLength = filepath.length() - fileName.length() + (dot < 0 ? fileName.length() : dot);
+        return filepath.substring(0, baseLength) + "." + extension;
+    }
+
+    private static String getFormat(Path springfieldFile) throws IOException {
+        if (springfieldFile.getFileName().toString().endsWith(".mp4"))
+            return "video/mp4";
+        return Optional.ofNullable(Files.probeContentType(springfieldFile)).orElse("application/octet-stream");
+    }
+}
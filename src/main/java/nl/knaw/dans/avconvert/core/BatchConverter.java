@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+@Slf4j
+public class BatchConverter {
+
+    private final Converter converter;
+    private final Path outputDir;
+    private final int numberOfWorkers;
+    private final long maxBytesInFlight;
+    private final BagLeases leases;
+
+    public BatchConverter(Converter converter, Path outputDir, int numberOfWorkers) {
+        this(converter, outputDir, numberOfWorkers, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytesInFlight the maximum estimated bytes to copy of the bags converted at the same time, see {@link WorkEstimate}
+     */
+    public BatchConverter(Converter converter, Path outputDir, int numberOfWorkers, long maxBytesInFlight) {
+        this(converter, outputDir, numberOfWorkers, maxBytesInFlight, null);
+    }
+
+    /**
+     * @param leases the leases through which the bags are divided between the nodes sharing the input and output directories, null to run on this node
+     *               only
+     */
+    public BatchConverter(Converter converter, Path outputDir, int numberOfWorkers, long maxBytesInFlight, BagLeases leases) {
+        this.converter = converter;
+        this.outputDir = outputDir;
+        this.numberOfWorkers = numberOfWorkers;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.leases = leases;
+    }
+
+    /**
+     * Converts all bags laid out as {@code inputBagsDir/<uuid>/<bag-uuid>}. A failing bag is reported in the results, it does not stop the other conversions.
+     */
+    public List<BagResult> convertAll(Path inputBagsDir) throws IOException, InterruptedException {
+        return convertAll(inputBagsDir, false);
+    }
+
+    /**
+     * @param verify verify the revisions of each bag right after converting it, by the same worker
+     */
+    public List<BagResult> convertAll(Path inputBagsDir, boolean verify) throws IOException, InterruptedException {
+        createDirectories(outputDir);
+        return runAll(inputBagsDir, "Converting", inputBag -> convertOne(inputBag, verify));
+    }
+
+    /**
+     * Verifies the revisions of all bags that were converted by {@link #convertAll(Path)}.
+     */
+    public List<BagResult> verifyAll(Path inputBagsDir) throws IOException, InterruptedException {
+        return runAll(inputBagsDir, "Verifying", this::verifyOne);
+    }
+
+    /**
+     * Runs the preflight checks of {@link #convertAll(Path)} without writing anything to the output directory.
+     */
+    public List<BagResult> checkAll(Path inputBagsDir) throws IOException, InterruptedException {
+        return runAll(inputBagsDir, "Checking", this::checkOne);
+    }
+
+    /**
+     * Runs the task for all bags on the workers, the largest estimated work first. The results are in the order of {@link #findBags(Path)}.
+     * <p>
+     * With leases, a bag is only run if this node acquires its lease. When there are no more bags to acquire, the node waits for the bags leased by
+     * other nodes, and takes over those whose lease expires, until all bags are finished. The results are then merged from all nodes.
+     */
+    private List<BagResult> runAll(Path inputBagsDir, String action, Function<Path, BagResult> task) throws IOException, InterruptedException {
+        var bags = findBags(inputBagsDir);
+        log.info("{} {} bags from {} with {} workers", action, bags.size(), inputBagsDir, numberOfWorkers);
+        Map<Path, WorkEstimate> estimates = new HashMap<>();
+        for (var bag : bags) {
+            var estimate = converter.estimate(bag);
+            log.debug("Estimated work for {}: {}", bag, estimate);
+            estimates.put(bag, estimate);
+        }
+
+        Map<Path, BagResult> results = new ConcurrentHashMap<>();
+        if (leases == null) {
+            runOnWorkers(estimates, task, results);
+            return bags.stream().map(results::get).toList();
+        }
+        while (true) {
+            runOnWorkers(estimates, bag -> runLeased(bag, task), results);
+            estimates.keySet().removeIf(leases::isDone);
+            if (estimates.isEmpty())
+                break;
+            log.info("Waiting for {} bags leased by other nodes", estimates.size());
+            Thread.sleep(leases.getPollIntervalMillis());
+        }
+        log.info("{} of {} bags done by node {}", results.size(), bags.size(), leases.getNodeId());
+        return leases.readResults(bags);
+    }
+
+    /**
+     * @return null if the bag is finished, leased by another node or taken over by another node while it was converted
+     */
+    @SneakyThrows
+    private BagResult runLeased(Path bag, Function<Path, BagResult> task) {
+        if (!leases.tryAcquire(bag))
+            return null;
+        var result = task.apply(bag);
+        // a bag that was taken over by another node is still to be done, its result is recorded by that node
+        return leases.complete(result) ? result : null;
+    }
+
+    private void runOnWorkers(Map<Path, WorkEstimate> estimates, Function<Path, BagResult> task, Map<Path, BagResult> results)
+        throws InterruptedException {
+        var queue = new LargestFirstQueue(estimates, maxBytesInFlight);
+        var executor = Executors.newFixedThreadPool(numberOfWorkers);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (var i = 0; i < numberOfWorkers; i++) {
+                workers.add(executor.submit(() -> {
+                    for (var bag = queue.take(); bag != null; bag = queue.take()) {
+                        try {
+                            var result = task.apply(bag);
+                            if (result != null)
+                                results.put(bag, result);
+                        }
+                        finally {
+                            queue.done(bag);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (var worker : workers) {
+                await(worker);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static List<Path> findBags(Path inputBagsDir) throws IOException {
+        try (Stream<Path> bags = Files.walk(inputBagsDir, 2)) {
+            return bags
+                .filter(path -> inputBagsDir.relativize(path).getNameCount() == 2)
+                .filter(Files::isDirectory)
+                .sorted()
+                .toList();
+        }
+    }
+
+    /**
+     * Writes the results to a temporary file that replaces the summary file when complete, so that readers on other nodes never see a partial summary.
+     */
+    public static void writeSummary(List<BagResult> results, Path summaryFile) throws IOException {
+        var tmpFile = summaryFile.resolveSibling("%s.tmp-%s".formatted(summaryFile.getFileName(), UUID.randomUUID()));
+        try (var printer = new CSVPrinter(Files.newBufferedWriter(tmpFile),
+            CSVFormat.DEFAULT.withHeader("input_bag", "status", "duration_ms", "message"))) {
+            for (var result : results) {
+                printer.printRecord(
+                    result.inputBag(),
+                    result.success() ? "OK" : "FAILED",
+                    result.durationMillis(),
+                    result.message()
+                );
+            }
+        }
+        Files.move(tmpFile, summaryFile, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private BagResult convertOne(Path inputBag, boolean verify) {
+        var start = System.currentTimeMillis();
+        try {
+            converter.convert(inputBag, outputDir, leases == null ? Converter.StageGuard.NONE : () -> leases.checkHeld(inputBag));
+            log.info("Converted {}", inputBag);
+            if (verify) {
+                converter.verify(inputBag, outputDir);
+                log.info("Verified {}", inputBag);
+            }
+            return BagResult.success(inputBag, System.currentTimeMillis() - start);
+        }
+        catch (Exception e) {
+            log.error("Could not convert {}", inputBag, e);
+            return BagResult.failure(inputBag, e, System.currentTimeMillis() - start);
+        }
+    }
+
+    private BagResult checkOne(Path inputBag) {
+        var start = System.currentTimeMillis();
+        try {
+            var requiredBytes = converter.preflight(inputBag, outputDir);
+            log.info("Checked {}", inputBag);
+            return new BagResult(inputBag, true, "%d bytes required".formatted(requiredBytes), System.currentTimeMillis() - start);
+        }
+        catch (Exception e) {
+            log.error("Preflight of {} failed", inputBag, e);
+            return BagResult.failure(inputBag, e, System.currentTimeMillis() - start);
+        }
+    }
+
+    private BagResult verifyOne(Path inputBag) {
+        var start = System.currentTimeMillis();
+        try {
+            converter.verify(inputBag, outputDir);
+            log.info("Verified {}", inputBag);
+            return BagResult.success(inputBag, System.currentTimeMillis() - start);
+        }
+        catch (Exception e) {
+            log.error("Verification of {} failed", inputBag, e);
+            return BagResult.failure(inputBag, e, System.currentTimeMillis() - start);
+        }
+    }
+
+    private static void await(Future<?> worker) throws InterruptedException {
+        try {
+            worker.get();
+        }
+        catch (ExecutionException e) {
+            // the tasks catch everything, so this is only expected if the leases fail
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
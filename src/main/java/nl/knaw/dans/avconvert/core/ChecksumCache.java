@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Checksums of files by absolute path, size and last modified time, kept in an append-only file that persists across runs. A file that changed
+ * since its checksums were calculated has a different size or last modified time and is not found. Later lines override earlier ones, a line that
+ * was not completely written is ignored. Only files under the source roots are cached, which do not change between runs: other files, such as the
+ * revisions and temporary files written by the conversion, would never be found again and make the file grow without bound. The checksums of files
+ * written by this run are only kept in memory, see {@link #remember}.
+ *
+ * <pre>
+ * &lt;size&gt; &lt;last modified millis&gt; sha1 &lt;value&gt; /data/av-dir/file.mp4
+ * </pre>
+ */
+@Slf4j
+public class ChecksumCache {
+
+    /**
+     * Smaller files are hashed about as fast as they are looked up, they are not worth caching.
+     */
+    public static final long MINIMUM_FILE_SIZE = 1024 * 1024;
+
+    private final Path file;
+    private final List<Path> roots;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private record Entry(long size, long lastModified, Map<SupportedAlgorithm, String> checksums) {
+
+        boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    /**
+     * Reads the cache of the files under any directory from the file, an empty cache if it does not exist yet.
+     */
+    public ChecksumCache(Path file) throws IOException {
+        this(file, List.of(Path.of("/")));
+    }
+
+    /**
+     * Reads the cache of the files under the roots from the file, an empty cache if it does not exist yet.
+     *
+     * @param roots the directories with the sources of the conversion, such as the AV and Springfield directories
+     */
+    public ChecksumCache(Path file, Collection<Path> roots) throws IOException {
+        this.file = file;
+        this.roots = roots.stream().map(root -> root.toAbsolutePath().normalize()).toList();
+        if (Files.exists(file))
+            read();
+    }
+
+    /**
+     * @return the cached checksums of the file if they are known for all the algorithms and the file did not change, null otherwise
+     */
+    public Map<SupportedAlgorithm, String> get(Path file, Collection<SupportedAlgorithm> algorithms) throws IOException {
+        var path = file.toAbsolutePath().normalize();
+        var entry = entries.get(path);
+        if (entry == null || !entry.checksums().keySet().containsAll(algorithms))
+            return null;
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!entry.matches(attributes.size(), attributes.lastModifiedTime().toMillis()))
+            return null;
+        Map<SupportedAlgorithm, String> checksums = new HashMap<>();
+        algorithms.forEach(algorithm -> checksums.put(algorithm, entry.checksums().get(algorithm)));
+        return checksums;
+    }
+
+    /**
+     * Caches the checksums of the file if it is under one of the roots, ignores them otherwise.
+     *
+     * @param attributes the attributes of the file read before the checksums were calculated, so that a change while hashing is detected later
+     */
+    public void put(Path file, BasicFileAttributes attributes, Map<SupportedAlgorithm, String> checksums) throws IOException {
+        var path = file.toAbsolutePath().normalize();
+        if (!isUnderRoot(path))
+            return;
+        var size = attributes.size();
+        var lastModified = attributes.lastModifiedTime().toMillis();
+        var lines = new StringBuilder();
+        checksums.forEach((algorithm, value) -> lines.append("%d %d %s %s %s%n".formatted(size, lastModified, algorithm.getBagitName(), value, path)));
+        synchronized (this) {
+            Files.createDirectories(this.file.getParent());
+            Files.writeString(this.file, lines, CREATE, APPEND);
+            add(path, size, lastModified, checksums);
+        }
+    }
+
+    /**
+     * Keeps the checksums of a file written by this run in memory only, so that verifying it in the same run does not read it again. A later run reads
+     * it, so that a bad copy or later corruption is detected.
+     *
+     * @param attributes the attributes of the file after it was written
+     */
+    public void remember(Path file, BasicFileAttributes attributes, Map<SupportedAlgorithm, String> checksums) {
+        add(file.toAbsolutePath().normalize(), attributes.size(), attributes.lastModifiedTime().toMillis(), checksums);
+    }
+
+    private void add(Path path, long size, long lastModified, Map<SupportedAlgorithm, String> checksums) {
+        entries.compute(path, (key, known) -> {
+            Map<SupportedAlgorithm, String> merged = new HashMap<>();
+            if (known != null && known.matches(size, lastModified))
+                merged.putAll(known.checksums());
+            merged.putAll(checksums);
+            return new Entry(size, lastModified, merged);
+        });
+    }
+
+    private void read() throws IOException {
+        var content = Files.readString(file);
+        var lines = content.lines().toList();
+        if (!content.isEmpty() && !content.endsWith("\n")) {
+            log.warn("Ignoring incomplete last line of {}", file);
+            lines = lines.subList(0, lines.size() - 1);
+        }
+        for (var line : lines) {
+            var fields = line.split(" ", 5);
+            var path = Path.of(fields[4]);
+            if (!isUnderRoot(path))
+                continue;
+            var algorithm = StandardSupportedAlgorithms.valueOf(fields[2].toUpperCase());
+            add(path, Long.parseLong(fields[0]), Long.parseLong(fields[1]), Map.of(algorithm, fields[3]));
+        }
+        log.info("Read the checksums of {} files from {}", entries.size(), file);
+    }
+
+    private boolean isUnderRoot(Path path) {
+        return roots.stream().anyMatch(path::startsWith);
+    }
+}
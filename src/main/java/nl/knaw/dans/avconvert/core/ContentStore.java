@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Keeps one copy of every AV file in a directory addressed by its SHA-256 checksum, so that a file referenced by several bags or converted again in a
+ * later run is copied and hashed only once. The bags get hard links to the stored copies, or copies if the store is on another file system. The
+ * checksums of the sources are kept in a {@link ChecksumCache} in the store, a source that changed is copied and hashed again.
+ * <p>
+ * The stored files are shared by bags, they must never be modified in place. None of the conversion stages does, a file is always deleted before it
+ * is replaced.
+ */
+@Slf4j
+public class ContentStore implements FileCopier {
+
+    private static final SupportedAlgorithm ADDRESS_ALGORITHM = StandardSupportedAlgorithms.SHA256;
+
+    private final Path storeDir;
+    private final Path tmpDir;
+    private final CopyEngine copyEngine;
+    private final ChecksumCache digests;
+
+    /**
+     * Opens the store in storeDir, creating it if it does not exist yet.
+     */
+    public ContentStore(Path storeDir, CopyEngine copyEngine) throws IOException {
+        this.storeDir = storeDir;
+        this.tmpDir = storeDir.resolve("tmp");
+        this.copyEngine = copyEngine;
+        if (Files.exists(tmpDir)) {
+            log.info("Removing files left by an interrupted copy to {}", storeDir);
+            FileUtils.cleanDirectory(tmpDir.toFile());
+        }
+        Files.createDirectories(tmpDir);
+        this.digests = new ChecksumCache(storeDir.resolve("digests.txt"));
+    }
+
+    /**
+     * Links the targets to the stored copies of their sources. Sources that are not stored yet, or for which not all algorithms were calculated, are
+     * copied into the store by the {@link CopyEngine} first.
+     *
+     * @return the checksums per target, for the stored files only the cached digests
+     * @throws IOException listing all failed copies, if any source could not be stored
+     */
+    @Override
+    public Map<Path, Map<SupportedAlgorithm, String>> copyAll(Map<Path, Path> sources, Collection<SupportedAlgorithm> algorithms) throws IOException {
+        var allAlgorithms = new LinkedHashSet<>(algorithms);
+        allAlgorithms.add(ADDRESS_ALGORITHM);
+
+        Map<Path, Map<SupportedAlgorithm, String>> storedDigests = new HashMap<>();
+        Map<Path, BasicFileAttributes> attributesBeforeCopy = new HashMap<>();
+        Map<Path, Path> toStore = new HashMap<>();
+        for (var source : new HashSet<>(sources.values())) {
+            var sourceDigests = getStored(source, allAlgorithms);
+            if (sourceDigests != null) {
+                storedDigests.put(source, sourceDigests);
+            }
+            else {
+                attributesBeforeCopy.put(source, Files.readAttributes(source, BasicFileAttributes.class));
+                toStore.put(tmpDir.resolve(UUID.randomUUID().toString()), source);
+            }
+        }
+        log.debug("{} of {} sources not stored yet", toStore.size(), toStore.size() + storedDigests.size());
+        try {
+            for (var entry : copyEngine.copyAll(toStore, allAlgorithms).entrySet()) {
+                var source = toStore.get(entry.getKey());
+                store(entry.getKey(), source, attributesBeforeCopy.get(source), entry.getValue());
+                storedDigests.put(source, entry.getValue());
+            }
+        }
+        finally {
+            for (var tmpFile : toStore.keySet()) {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+
+        Map<Path, Map<SupportedAlgorithm, String>> checksums = new HashMap<>();
+        for (var entry : sources.entrySet()) {
+            var target = entry.getKey();
+            var sourceDigests = storedDigests.get(entry.getValue());
+            link(getBlob(sourceDigests), target);
+            Map<SupportedAlgorithm, String> targetChecksums = new HashMap<>();
+            algorithms.forEach(algorithm -> targetChecksums.put(algorithm, sourceDigests.get(algorithm)));
+            checksums.put(target, targetChecksums);
+        }
+        return checksums;
+    }
+
+    /**
+     * @return the cached digests of the source if it is stored with all the algorithms, null otherwise
+     */
+    private Map<SupportedAlgorithm, String> getStored(Path source, Collection<SupportedAlgorithm> algorithms) throws IOException {
+        var sourceDigests = digests.get(source, algorithms);
+        if (sourceDigests == null)
+            return null;
+        var blob = getBlob(sourceDigests);
+        if (!Files.exists(blob) || Files.size(blob) != Files.size(source)) {
+            log.warn("Stored copy of {} is missing or incomplete: {}", source, blob);
+            return null;
+        }
+        return sourceDigests;
+    }
+
+    private void store(Path tmpFile, Path source, BasicFileAttributes attributes, Map<SupportedAlgorithm, String> sourceDigests) throws IOException {
+        var blob = getBlob(sourceDigests);
+        Files.createDirectories(blob.getParent());
+        try {
+            Files.move(tmpFile, blob);
+        }
+        catch (FileAlreadyExistsException e) {
+            if (Files.size(blob) == Files.size(tmpFile)) {
+                // stored before from another path, or concurrently by another bag, the content is the same
+                log.debug("{} already stored as {}", source, blob);
+            }
+            else {
+                Files.move(tmpFile, blob, REPLACE_EXISTING);
+            }
+        }
+        digests.put(source, attributes, sourceDigests);
+    }
+
+    private void link(Path blob, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            // e.g. another file system, or the maximum number of links to the stored file is reached
+            log.debug("Could not link {} to {}, copying instead: {}", target, blob, e.getMessage());
+            copyEngine.copy(blob, target);
+        }
+    }
+
+    private Path getBlob(Map<SupportedAlgorithm, String> sourceDigests) {
+        var address = sourceDigests.get(ADDRESS_ALGORITHM);
+        return storeDir.resolve(address.substring(0, 2)).resolve(address);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.CsvReporter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.SneakyThrows;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.Files.createDirectories;
+
+/**
+ * Timers and byte meters of the stages of the conversion, aggregated in a {@link MetricRegistry} and recorded per bag to find the outliers.
+ */
+public class ConversionMetrics {
+
+    public record StageMeasurement(Path inputBag, String stage, long durationMillis, long bytes) {
+    }
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final List<StageMeasurement> measurements = new ArrayList<>();
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Times a stage of the conversion of a bag.
+     *
+     * @param bytes the number of bytes processed by the stage, counted after the stage completed
+     */
+    @SneakyThrows
+    public <T> T time(Path inputBag, String stage, Callable<T> action, ToLong<T> bytes) {
+        var start = System.nanoTime();
+        T result;
+        try (var ignored = registry.timer(MetricRegistry.name("stage", stage)).time()) {
+            result = action.call();
+        }
+        var durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        var processedBytes = bytes.apply(result);
+        if (processedBytes > 0) {
+            registry.meter(MetricRegistry.name("stage", stage, "bytes")).mark(processedBytes);
+        }
+        synchronized (measurements) {
+            measurements.add(new StageMeasurement(inputBag, stage, durationMillis, processedBytes));
+        }
+        return result;
+    }
+
+    public <T> T time(Path inputBag, String stage, Callable<T> action) {
+        return time(inputBag, stage, action, result -> 0L);
+    }
+
+    public void run(Path inputBag, String stage, Action action) {
+        time(inputBag, stage, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public List<StageMeasurement> getMeasurements() {
+        synchronized (measurements) {
+            return List.copyOf(measurements);
+        }
+    }
+
+    /**
+     * Writes the measurements per bag to {@code bags.csv} and the aggregated metrics to a CSV file per metric in the given directory.
+     */
+    public void writeReport(Path dir) throws IOException {
+        createDirectories(dir);
+        try (var printer = new CSVPrinter(Files.newBufferedWriter(dir.resolve("bags.csv")),
+            CSVFormat.DEFAULT.withHeader("input_bag", "stage", "duration_ms", "bytes"))) {
+            for (var measurement : getMeasurements()) {
+                printer.printRecord(measurement.inputBag(), measurement.stage(), measurement.durationMillis(), measurement.bytes());
+            }
+        }
+        CsvReporter.forRegistry(registry)
+            .formatFor(Locale.ROOT)
+            .convertRatesTo(TimeUnit.SECONDS)
+            .convertDurationsTo(TimeUnit.MILLISECONDS)
+            .build(dir.toFile())
+            .report();
+    }
+
+    /**
+     * Starts reporting the aggregated metrics to the console with the given interval.
+     *
+     * @return the reporter, to be closed at the end of the run
+     */
+    public ConsoleReporter startConsoleReporter(long intervalMillis) {
+        var reporter = ConsoleReporter.forRegistry(registry)
+            .convertRatesTo(TimeUnit.SECONDS)
+            .convertDurationsTo(TimeUnit.MILLISECONDS)
+            .build();
+        reporter.start(intervalMillis, TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ToLong<T> {
+        long apply(T result) throws Exception;
+    }
+}
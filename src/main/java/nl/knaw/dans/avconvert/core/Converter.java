@@ -18,53 +18,264 @@ package nl.knaw.dans.avconvert.core;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 
 import static java.nio.file.Files.createDirectories;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.AV_REPLACED;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.CONVERTED;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION1_COPIED;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION1_WRITTEN;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION2_WRITTEN;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION3_WRITTEN;
 
 @Slf4j
 public class Converter {
 
+    private final MappingIndex mapping;
+    private final CopyStrategy copyStrategy;
+    private final RevisionCopier revisionCopier;
+    private final Preflight preflight;
+    private final ParallelHasher hasher;
+    private final ConversionMetrics metrics;
+    private final CopyEngine copyEngine;
+    private final FileCopier avCopier;
+    private final BagVerifier verifier;
+    private final DiskSpaceAdmission admission;
+
+    public Converter(MappingIndex mapping, CopyStrategy copyStrategy, ParallelHasher hasher) {
+        this(mapping, copyStrategy, new CopyEngine(), hasher, new ConversionMetrics());
+    }
+
+    public Converter(MappingIndex mapping, CopyStrategy copyStrategy, CopyEngine copyEngine, ParallelHasher hasher, ConversionMetrics metrics) {
+        this(mapping, copyStrategy, copyEngine, null, hasher, metrics, null);
+    }
+
+    /**
+     * @param contentStore the store to link the AV files from, null to copy them into each bag
+     * @param admission    the disk space admission shared by the bags converted in parallel, null to only check the space in the preflight
+     */
+    public Converter(MappingIndex mapping, CopyStrategy copyStrategy, CopyEngine copyEngine, ContentStore contentStore, ParallelHasher hasher,
+        ConversionMetrics metrics, DiskSpaceAdmission admission) {
+        this.mapping = mapping;
+        this.copyStrategy = copyStrategy;
+        this.metrics = metrics;
+        this.copyEngine = copyEngine;
+        this.avCopier = contentStore == null ? copyEngine : contentStore;
+        this.revisionCopier = new RevisionCopier(copyStrategy, copyEngine);
+        this.preflight = new Preflight(mapping, copyStrategy);
+        this.hasher = hasher;
+        this.verifier = new BagVerifier(hasher);
+        this.admission = admission;
+    }
+
+    /**
+     * Estimates the work of converting the bag from its files.xml, without reading the AV files.
+     *
+     * @return the estimate, {@link WorkEstimate#NONE} if files.xml can not be read, the conversion will report that
+     */
+    public WorkEstimate estimate(Path inputDir) {
+        try {
+            var filesXml = FilesXml.read(inputDir.resolve("metadata/files.xml"));
+            return WorkEstimate.of(filesXml, mapping, inputDir.getParent().getFileName().toString(), copyStrategy);
+        }
+        catch (IOException | XMLStreamException e) {
+            log.debug("Could not estimate the work for {}: {}", inputDir, e.getMessage());
+            return WorkEstimate.NONE;
+        }
+    }
+
+    /**
+     * Checks whether the bag can be converted without writing anything.
+     *
+     * @return the estimated number of bytes the conversion writes to the output directory
+     * @throws IllegalStateException if the bag can not be converted
+     */
     @SneakyThrows
-    public void convert(Path inputDir, Path mapping, Path avDir, Path springfieldDir, Path outputDir) {
+    public long preflight(Path inputDir, Path outputDir) {
+        return preflight.check(inputDir, FilesXml.read(inputDir.resolve("metadata/files.xml")), outputDir);
+    }
+
+    /**
+     * Converts the bag into up to three revisions in outputDir. The progress is recorded in a {@link Journal}: a bag that was converted before is
+     * skipped, an interrupted conversion resumes at the last completed stage. A revision that was partially written is copied again.
+     */
+    public void convert(Path inputDir, Path outputDir) {
+        convert(inputDir, outputDir, StageGuard.NONE);
+    }
+
+    /**
+     * @param guard checked before each step that writes to the output and before each stage is recorded in the journal, the conversion is aborted if it
+     *              throws. A long step is only aborted by interrupting the converting thread.
+     */
+    @SneakyThrows
+    public void convert(Path inputDir, Path outputDir, StageGuard guard) {
+        var revision1BagId = inputDir.toFile().getName();
+        var journal = Journal.read(outputDir, revision1BagId);
+        if (journal.isCompleted(CONVERTED)) {
+            log.info("Skipping {}, already converted to {}", inputDir, outputDir);
+            return;
+        }
         log.debug("Converting AV dataset from {} to {}", inputDir, outputDir);
+        var filesXml = metrics.time(inputDir, "readFilesXml", () -> FilesXml.read(inputDir.resolve("metadata/files.xml")));
+        // the input bag is walked once, the revisions are copied from inventories updated with the files each stage changes
+        var inventory = metrics.time(inputDir, "readInventory", () -> BagInventory.read(inputDir));
+        var requiredBytes = metrics.time(inputDir, "preflight", () -> preflight.check(inputDir, inventory, filesXml, outputDir, journal));
+        if (admission == null) {
+            convertRevisions(inputDir, outputDir, revision1BagId, journal, filesXml, inventory, guard);
+            return;
+        }
+        metrics.run(inputDir, "awaitDiskSpace", () -> admission.admit(inputDir, requiredBytes));
+        try {
+            convertRevisions(inputDir, outputDir, revision1BagId, journal, filesXml, inventory, guard);
+        }
+        finally {
+            admission.release(requiredBytes);
+        }
+    }
+
+    private void convertRevisions(Path inputDir, Path outputDir, String revision1BagId, Journal journal, FilesXml filesXml, BagInventory inventory,
+        StageGuard guard) throws Exception {
         createDirectories(outputDir);
-        var revision1BagId = inputDir.toFile().getName();
         var revision1 = outputDir.resolve(revision1BagId);
-        var revision2 = outputDir.resolve(UUID.randomUUID().toString());
-        var revision3 = outputDir.resolve(UUID.randomUUID().toString());
-        var filesXml = readXmlFile(inputDir.resolve("metadata/files.xml"));
-
-        FileUtils.copyDirectory(inputDir.toFile(), revision1.toFile());
-        new AVReplacer(revision1, mapping, avDir, filesXml, inputDir.getParent()).replaceAVFiles();
-        ManifestsUpdater.updateAllPayloads(revision1);
-
-        FileUtils.copyDirectory(revision1.toFile(), revision2.toFile());
-        var bag2 = new BagVersion2(revision2);
-        bag2.addVersionOf(revision1BagId);
-        ManifestsUpdater.removePayloads(revision2, bag2.removeNoneNone(filesXml));
-        //        FileUtils.copyDirectory(revision2.toFile(), revision3.toFile());
-        // TODO reuse addVersionOf
-        // TODO add springfield files for non playable (.mka .mk4 >5GB)
+        var revision2 = outputDir.resolve(journal.getId("revision2"));
+        var revision3 = outputDir.resolve(journal.getId("revision3"));
+
+        // the guard is checked before each step that deletes or overwrites files in the output, another node may have taken the bag over
+        if (!journal.isCompleted(REVISION1_COPIED)) {
+            copyRevision(inputDir, inputDir, inventory, revision1, guard);
+            complete(journal, REVISION1_COPIED, revision1, guard);
+        }
+        if (!journal.isCompleted(AV_REPLACED)) {
+            // the placeholders were cross-checked with the mapping by the preflight
+            guard.check();
+            var replacedFiles = metrics.time(inputDir, "replaceAVFiles",
+                () -> new AVReplacer(revision1, mapping, AVReplacer.getIdentifierToDestMap(filesXml, inventory), avCopier).replaceAVFiles(),
+                replaced -> sizeOf(revision1, replaced.keySet()));
+            guard.check();
+            journal.addChecksums(replacedFiles);
+            complete(journal, AV_REPLACED, revision1, guard);
+        }
+        // the manifests are read once, from the input bag or the last revision written before an interruption, and the plans as written are carried
+        // forward in memory
+        RevisionPlan plan = null;
+        if (!journal.isCompleted(REVISION1_WRITTEN)) {
+            var revision1Plan = metrics.time(inputDir, "readManifests", () -> RevisionPlan.read(inputDir))
+                .withPayloads(journal.getChecksums());
+            guard.check();
+            plan = metrics.time(inputDir, "writeManifests", () -> revision1Plan.write(revision1, hasher));
+            complete(journal, REVISION1_WRITTEN, revision1, guard);
+        }
+
+        var revision1Inventory = inventory.withUpdated(revision1, journal.getChecksums().keySet());
+        var revision2Inventory = revision1Inventory.without(getNoneNonePaths(filesXml));
+
+        if (!journal.isCompleted(REVISION2_WRITTEN)) {
+            copyRevision(inputDir, revision1, revision1Inventory, revision2, guard);
+            guard.check();
+            var bag2 = new BagVersion2(revision2);
+            bag2.addVersionOf(revision1BagId);
+            var removedFiles = metrics.time(inputDir, "removeNoneNone", () -> bag2.removeNoneNone(filesXml));
+            var revision2Plan = readIfNull(plan, inputDir, revision1).withoutPayloads(removedFiles);
+            guard.check();
+            plan = metrics.time(inputDir, "writeManifests", () -> revision2Plan.write(revision2, hasher));
+            complete(journal, REVISION2_WRITTEN, revision2, guard);
+        }
+
+        var revision2FilesXml = filesXml.withoutNoneNone();
+        if (!journal.isCompleted(REVISION3_WRITTEN) && BagVersion3.hasSpringfieldFiles(revision2FilesXml, mapping)) {
+            copyRevision(inputDir, revision2, revision2Inventory, revision3, guard);
+            guard.check();
+            var bag3 = new BagVersion3(revision3, copyEngine);
+            bag3.addVersionOf(revision1BagId);
+            var springfieldFiles = metrics.time(inputDir, "addSpringfieldFiles",
+                () -> bag3.addSpringfieldFiles(revision2FilesXml, mapping),
+                added -> sizeOf(revision3, added.keySet()));
+            var revision3Plan = readIfNull(plan, inputDir, revision2).withPayloads(springfieldFiles);
+            guard.check();
+            metrics.run(inputDir, "writeManifests", () -> revision3Plan.write(revision3, hasher));
+            complete(journal, REVISION3_WRITTEN, revision3, guard);
+        }
+        guard.check();
+        journal.complete(CONVERTED);
+    }
+
+    /**
+     * Verifies the manifests of all revisions of a converted bag, see {@link BagVerifier}.
+     *
+     * @throws IllegalStateException if the bag was not converted completely or a revision is not valid
+     */
+    @SneakyThrows
+    public void verify(Path inputDir, Path outputDir) {
+        var revision1BagId = inputDir.toFile().getName();
+        var journal = Journal.read(outputDir, revision1BagId);
+        if (!journal.isCompleted(CONVERTED))
+            throw new IllegalStateException("%s is not converted to %s".formatted(inputDir, outputDir));
+        List<Path> revisions = new ArrayList<>();
+        revisions.add(outputDir.resolve(revision1BagId));
+        revisions.add(outputDir.resolve(journal.getId("revision2")));
+        if (journal.isCompleted(REVISION3_WRITTEN))
+            revisions.add(outputDir.resolve(journal.getId("revision3")));
+        for (var revision : revisions) {
+            metrics.time(inputDir, "verify", () -> verifier.verify(revision), verifiedBytes -> verifiedBytes);
+        }
+    }
+
+    private RevisionPlan readIfNull(RevisionPlan plan, Path inputDir, Path previousRevision) {
+        return plan != null ? plan : metrics.time(inputDir, "readManifests", () -> RevisionPlan.read(previousRevision));
     }
 
-    public static Document readXmlFile(Path path) throws ParserConfigurationException, IOException, SAXException {
-        var factory = DocumentBuilderFactory.newInstance();
-        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-        factory.setNamespaceAware(true);
+    private void complete(Journal journal, Journal.Stage stage, Path revision, StageGuard guard) throws IOException {
+        // the journal must not get ahead of the data
+        copyEngine.syncBatch(revision);
+        guard.check();
+        journal.complete(stage);
+    }
 
-        return factory
-            .newDocumentBuilder()
-            .parse(path.toFile());
+    private void copyRevision(Path inputDir, Path source, BagInventory inventory, Path target, StageGuard guard) throws IOException {
+        guard.check();
+        if (Files.exists(target)) {
+            log.info("Removing partially written {}", target);
+            FileUtils.deleteDirectory(target.toFile());
+        }
+        metrics.time(inputDir, "copyRevision", () -> revisionCopier.copy(source, inventory, target), copiedBytes -> copiedBytes);
     }
 
+    private static List<Path> getNoneNonePaths(FilesXml filesXml) {
+        return filesXml.getNoneNone().stream()
+            .map(FilesXml.FileEntry::filepath)
+            .filter(Objects::nonNull)
+            .map(Path::of)
+            .toList();
+    }
+
+    private static long sizeOf(Path bagDir, Collection<Path> files) throws IOException {
+        var size = 0L;
+        for (var file : files) {
+            size += Files.size(bagDir.resolve(file));
+        }
+        return size;
+    }
+
+    /**
+     * Decides whether a conversion may go on, for example whether this node still holds the lease on the bag, see {@link BagLeases#checkHeld(Path)}.
+     */
+    @FunctionalInterface
+    public interface StageGuard {
+
+        StageGuard NONE = () -> {
+        };
+
+        /**
+         * @throws IllegalStateException if the conversion must not go on
+         */
+        void check() throws IOException;
+    }
 }
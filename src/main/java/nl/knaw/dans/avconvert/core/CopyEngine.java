@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Copies files outside the Java heap. Without checksums to calculate the kernel moves the data ({@link FileChannel#transferTo}, copy_file_range or
+ * sendfile on Linux), otherwise the data passes through a direct buffer that is hashed before it is written. The last modified time of the source
+ * is preserved.
+ */
+@Slf4j
+public class CopyEngine implements FileCopier {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private final int bufferSize;
+    private final boolean extendToFinalSize;
+    private final FsyncMode fsyncMode;
+    private final int maxCopiesPerDevice;
+    private final ChecksumCache checksumCache;
+
+    // one per copying thread, allocating direct buffers is expensive
+    private final ThreadLocal<ByteBuffer> buffer;
+
+    // the number of threads per source device limits the concurrent copies from it, shared by all bags converted in parallel
+    private final Map<FileStore, ExecutorService> executorPerDevice = new ConcurrentHashMap<>();
+
+    // the files copied since they were last synced in a batch, by file key, so that the hard links to them are found as well
+    private final Set<Object> unsyncedFiles = ConcurrentHashMap.newKeySet();
+
+    public CopyEngine() {
+        this(DEFAULT_BUFFER_SIZE, false, FsyncMode.NONE, 1);
+    }
+
+    /**
+     * @param bufferSize         the size of the direct buffer when hashing while copying, and of the chunks transferred by the kernel otherwise
+     * @param extendToFinalSize  set the length of the target to that of the source before writing it. The file is sparse until it is written: no
+     *                           blocks are reserved, so this does not prevent fragmentation or a full disk halfway through the copy.
+     * @param fsyncMode          when the copies are forced to disk
+     * @param maxCopiesPerDevice the maximum number of files {@link #copyAll(Map, Collection)} copies concurrently from one device
+     */
+    public CopyEngine(int bufferSize, boolean extendToFinalSize, FsyncMode fsyncMode, int maxCopiesPerDevice) {
+        this(bufferSize, extendToFinalSize, fsyncMode, maxCopiesPerDevice, null);
+    }
+
+    /**
+     * @param checksumCache the checksums of sources copied before, null to always calculate them
+     */
+    public CopyEngine(int bufferSize, boolean extendToFinalSize, FsyncMode fsyncMode, int maxCopiesPerDevice, ChecksumCache checksumCache) {
+        this.bufferSize = bufferSize;
+        this.extendToFinalSize = extendToFinalSize;
+        this.fsyncMode = fsyncMode;
+        this.maxCopiesPerDevice = maxCopiesPerDevice;
+        this.checksumCache = checksumCache;
+        this.buffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Replaces files with copies, calculating their checksums, as {@link #copy(Path, Path, Collection)}. Files from different devices are copied
+     * concurrently, files from the same device at most maxCopiesPerDevice at a time. An existing target is deleted first, it may be a hard link to a
+     * previous revision. A failing copy does not stop the others.
+     *
+     * @param sources the source per target
+     * @return the checksums per target
+     * @throws IOException listing all failed copies, with their causes as suppressed exceptions
+     */
+    @Override
+    public Map<Path, Map<SupportedAlgorithm, String>> copyAll(Map<Path, Path> sources, Collection<SupportedAlgorithm> algorithms) throws IOException {
+        Map<Path, Future<Map<SupportedAlgorithm, String>>> futures = new LinkedHashMap<>();
+        List<Exception> failures = new ArrayList<>();
+        for (var entry : sources.entrySet()) {
+            var target = entry.getKey();
+            var source = entry.getValue();
+            try {
+                futures.put(target, getExecutor(source).submit(() -> {
+                    Files.deleteIfExists(target);
+                    return copy(source, target, algorithms);
+                }));
+            }
+            catch (IOException e) {
+                log.error("Could not copy {} to {}", source, target, e);
+                failures.add(new IOException("%s: %s".formatted(target, e.getMessage()), e));
+            }
+        }
+        Map<Path, Map<SupportedAlgorithm, String>> checksums = new HashMap<>();
+        for (var entry : futures.entrySet()) {
+            try {
+                checksums.put(entry.getKey(), entry.getValue().get());
+            }
+            catch (InterruptedException e) {
+                futures.values().forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while copying " + sources.size() + " files");
+            }
+            catch (ExecutionException e) {
+                log.error("Could not copy {} to {}", sources.get(entry.getKey()), entry.getKey(), e.getCause());
+                failures.add(new IOException("%s: %s".formatted(entry.getKey(), e.getCause().getMessage()), e.getCause()));
+            }
+        }
+        if (!failures.isEmpty()) {
+            var report = failures.stream().map(Exception::getMessage).collect(Collectors.joining("; "));
+            var exception = new IOException("Could not copy %d of %d files: %s".formatted(failures.size(), sources.size(), report));
+            failures.forEach(exception::addSuppressed);
+            throw exception;
+        }
+        return checksums;
+    }
+
+    private ExecutorService getExecutor(Path source) throws IOException {
+        return executorPerDevice.computeIfAbsent(Files.getFileStore(source), store -> {
+            var executor = new ThreadPoolExecutor(maxCopiesPerDevice, maxCopiesPerDevice, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+                var thread = new Thread(runnable, "copy-" + store.name());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * @return the number of bytes copied
+     */
+    public long copy(Path source, Path target) throws IOException {
+        long size;
+        try (var in = FileChannel.open(source, READ);
+            var out = FileChannel.open(target, WRITE, CREATE_NEW)) {
+            size = in.size();
+            extendToFinalSize(out, size);
+            for (var position = 0L; position < size; ) {
+                var transferred = in.transferTo(position, Math.min(bufferSize, size - position), out);
+                if (transferred <= 0)
+                    throw new IOException("Unexpected end of %s at %d of %d bytes".formatted(source, position, size));
+                position += transferred;
+            }
+            if (fsyncMode == FsyncMode.PER_FILE)
+                out.force(true);
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        if (fsyncMode == FsyncMode.BATCHED)
+            unsyncedFiles.add(getFileKey(target, Files.readAttributes(target, BasicFileAttributes.class)));
+        return size;
+    }
+
+    /**
+     * Copies a file and calculates the checksums of the bytes written, so the copy never needs to be read again for the manifests. If the checksums of
+     * the source are cached, the kernel copies it without calculating them again.
+     */
+    public Map<SupportedAlgorithm, String> copy(Path source, Path target, Collection<SupportedAlgorithm> algorithms) throws IOException, NoSuchAlgorithmException {
+        if (checksumCache == null)
+            return copyAndHash(source, target, algorithms);
+        var cached = checksumCache.get(source, algorithms);
+        if (cached != null) {
+            copy(source, target);
+            return cached;
+        }
+        var attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        var checksums = copyAndHash(source, target, algorithms);
+        if (attributes.size() >= ChecksumCache.MINIMUM_FILE_SIZE) {
+            checksumCache.put(source, attributes, checksums);
+            // the bytes written were hashed, so the copy does not need to be read to verify it in this run
+            checksumCache.remember(target, Files.readAttributes(target, BasicFileAttributes.class), checksums);
+        }
+        return checksums;
+    }
+
+    private Map<SupportedAlgorithm, String> copyAndHash(Path source, Path target, Collection<SupportedAlgorithm> algorithms)
+        throws IOException, NoSuchAlgorithmException {
+        var digests = FileHasher.createDigests(algorithms);
+        var buffer = this.buffer.get();
+        try (var in = FileChannel.open(source, READ);
+            var out = FileChannel.open(target, WRITE, CREATE_NEW)) {
+            extendToFinalSize(out, in.size());
+            var position = 0L;
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                for (var digest : digests.values()) {
+                    buffer.position(0);
+                    digest.update(buffer);
+                }
+                buffer.position(0);
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                buffer.clear();
+            }
+            if (fsyncMode == FsyncMode.PER_FILE)
+                out.force(true);
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        if (fsyncMode == FsyncMode.BATCHED)
+            unsyncedFiles.add(getFileKey(target, Files.readAttributes(target, BasicFileAttributes.class)));
+        return FileHasher.toHex(digests);
+    }
+
+    /**
+     * Forces the new entries of the directory to disk if the copies are synced in batches, a no-op otherwise. All directories under it, and its parent,
+     * are forced, so that the new entries survive a crash. Of the files only those that were written are forced: the files this engine copied, and the
+     * tag files outside data/, which the conversion rewrites. The other payload files are hard links or reflinks to files that are on disk already.
+     */
+    public void syncBatch(Path dir) throws IOException {
+        if (fsyncMode != FsyncMode.BATCHED)
+            return;
+        log.debug("Syncing {}", dir);
+        var payloadDir = dir.resolve("data");
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (unsyncedFiles.remove(getFileKey(file, attrs)) || !file.startsWith(payloadDir))
+                    force(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                if (e != null)
+                    throw e;
+                force(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        force(dir.toAbsolutePath().getParent());
+    }
+
+    private static void force(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static Object getFileKey(Path file, BasicFileAttributes attributes) {
+        // the path on file systems without file keys
+        return attributes.fileKey() != null ? attributes.fileKey() : file.toAbsolutePath().normalize();
+    }
+
+    private void extendToFinalSize(FileChannel out, long size) throws IOException {
+        if (extendToFinalSize && size > 0) {
+            // writing the last byte sets the length, the data written later overwrites it. Java has no portable call to reserve the blocks
+            // (fallocate), and writing zeros first would double the writes.
+            out.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+}
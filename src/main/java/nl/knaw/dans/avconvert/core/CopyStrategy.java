@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+/**
+ * How payload files are materialized in a new revision of a bag. Tag files are always copied, as they are modified by the conversion.
+ */
+public enum CopyStrategy {
+    /**
+     * Copy the payload files.
+     */
+    COPY,
+    /**
+     * Hard link the payload files, falls back to COPY if the file system does not support it, e.g. across devices.
+     */
+    HARDLINK,
+    /**
+     * Copy-on-write clone of the payload files with {@code cp --reflink=always}, falls back to COPY if the file system does not support it.
+     */
+    REFLINK
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back the conversion of a bag until the output file system has room for its footprint as predicted by {@link Preflight}, on top of the
+ * footprints of the bags in progress and a headroom. The footprint of a bag stays reserved until its conversion ends, so the bytes it already wrote
+ * are counted twice while it is in progress: the output file system may be used less than fully, but never fills up.
+ */
+@Slf4j
+public class DiskSpaceAdmission {
+
+    // the usable space also grows by deletions outside the conversion, which do not notify
+    private static final long RECHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Path outputDir;
+    private final long headroomBytes;
+    private long reservedBytes = 0;
+    private int bagsInProgress = 0;
+
+    public DiskSpaceAdmission(Path outputDir, long headroomBytes) {
+        this.outputDir = outputDir;
+        this.headroomBytes = headroomBytes;
+    }
+
+    /**
+     * Waits until there is room for the bag and reserves it.
+     *
+     * @throws IllegalStateException if there is no room for the bag even when no other bag is in progress
+     */
+    public synchronized void admit(Path inputDir, long requiredBytes) throws IOException, InterruptedException {
+        while (true) {
+            var usableBytes = Files.getFileStore(Preflight.getExistingAncestor(outputDir)).getUsableSpace();
+            var availableBytes = usableBytes - headroomBytes - reservedBytes;
+            if (requiredBytes <= availableBytes) {
+                reservedBytes += requiredBytes;
+                bagsInProgress++;
+                return;
+            }
+            if (bagsInProgress == 0) {
+                var msg = "Not enough space in %s for %s: %d bytes required, %d bytes usable with a headroom of %d bytes"
+                    .formatted(outputDir, inputDir, requiredBytes, usableBytes, headroomBytes);
+                log.error(msg);
+                throw new IllegalStateException(msg);
+            }
+            log.info("Waiting for space in {} for {}: {} bytes required, {} bytes available", outputDir, inputDir, requiredBytes, availableBytes);
+            wait(RECHECK_INTERVAL_MILLIS);
+        }
+    }
+
+    public synchronized void release(long requiredBytes) {
+        reservedBytes -= requiredBytes;
+        bagsInProgress--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Materializes files in a bag from external sources, providing their checksums for the payload manifests.
+ */
+public interface FileCopier {
+
+    /**
+     * @param sources the source per target, an existing target is replaced
+     * @return the checksums per target
+     */
+    Map<Path, Map<SupportedAlgorithm, String>> copyAll(Map<Path, Path> sources, Collection<SupportedAlgorithm> algorithms) throws IOException;
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Calculates the checksums of a file for several algorithms while reading it only once. {@link CopyEngine} does the same while copying.
+ */
+public class FileHasher {
+
+    private static final int DIRECT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    // one per hashing thread, allocating direct buffers is expensive
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
+    private FileHasher() {
+    }
+
+    public static Map<SupportedAlgorithm, String> hash(Path file, Collection<SupportedAlgorithm> algorithms) throws IOException, NoSuchAlgorithmException {
+        var digests = createDigests(algorithms);
+        var buffer = DIRECT_BUFFER.get();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                for (var digest : digests.values()) {
+                    buffer.position(0);
+                    digest.update(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return toHex(digests);
+    }
+
+    static Map<SupportedAlgorithm, MessageDigest> createDigests(Collection<SupportedAlgorithm> algorithms) throws NoSuchAlgorithmException {
+        Map<SupportedAlgorithm, MessageDigest> digests = new LinkedHashMap<>();
+        for (var algorithm : algorithms) {
+            digests.put(algorithm, MessageDigest.getInstance(algorithm.getMessageDigestName()));
+        }
+        return digests;
+    }
+
+    static Map<SupportedAlgorithm, String> toHex(Map<SupportedAlgorithm, MessageDigest> digests) {
+        Map<SupportedAlgorithm, String> checksums = new LinkedHashMap<>();
+        digests.forEach((algorithm, digest) -> checksums.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+        return checksums;
+    }
+}
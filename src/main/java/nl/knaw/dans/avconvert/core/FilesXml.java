@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The file elements of an EASY files.xml, read with StAX into compact records. Immutable and indexed, pipeline stages derive their own view with
+ * {@link #filter(Predicate)} instead of modifying a shared document.
+ */
+public class FilesXml {
+
+    static final String DCTERMS_NAMESPACE = "http://purl.org/dc/terms/";
+    private static final QName FILEPATH = new QName("filepath");
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+    private static final Pattern EXTENT = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(B|KB|MB|GB)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The access and visibility of a file, a missing rights element counts as NONE.
+     */
+    public record Rights(String accessibleToRights, String visibleToRights) {
+        public static final Rights NONE_NONE = new Rights("NONE", "NONE");
+    }
+
+    /**
+     * A file element. Values are null when the element or attribute is absent.
+     */
+    public record FileEntry(String filepath, String identifier, String source, String accessibleToRights, String visibleToRights, String extent) {
+
+        /**
+         * @return the size recorded in dct:extent, e.g. 2036.7MB, empty if it is absent or not understood
+         */
+        public OptionalLong extentInBytes() {
+            if (extent == null)
+                return OptionalLong.empty();
+            var matcher = EXTENT.matcher(extent.trim());
+            if (!matcher.matches())
+                return OptionalLong.empty();
+            var unit = switch (matcher.group(2).toUpperCase()) {
+                case "KB" -> 1024L;
+                case "MB" -> 1024L * 1024;
+                case "GB" -> 1024L * 1024 * 1024;
+                default -> 1L;
+            };
+            return OptionalLong.of((long) (Double.parseDouble(matcher.group(1)) * unit));
+        }
+
+        public Rights rights() {
+            return new Rights(noneIfAbsent(accessibleToRights), noneIfAbsent(visibleToRights));
+        }
+
+        /**
+         * @return true if the file is neither accessible nor visible, a missing rights element counts as NONE
+         */
+        public boolean isNoneNone() {
+            return Rights.NONE_NONE.equals(rights());
+        }
+
+        private static String noneIfAbsent(String rights) {
+            return rights == null ? "NONE" : rights;
+        }
+    }
+
+    /**
+     * A file to append to files.xml, e.g. a rendition of a file that is already in the bag.
+     */
+    public record AddedFile(String filepath, String format, Rights rights) {
+    }
+
+    private final List<FileEntry> files;
+    private final Map<String, FileEntry> byFilepath = new HashMap<>();
+    private final Map<String, FileEntry> byIdentifier = new HashMap<>();
+    private final Map<Rights, List<FileEntry>> byRights = new HashMap<>();
+
+    private FilesXml(List<FileEntry> files) {
+        this.files = List.copyOf(files);
+        for (var file : this.files) {
+            // the first occurrence wins
+            if (file.filepath() != null)
+                byFilepath.putIfAbsent(file.filepath(), file);
+            if (file.identifier() != null)
+                byIdentifier.putIfAbsent(file.identifier(), file);
+            byRights.computeIfAbsent(file.rights(), k -> new ArrayList<>()).add(file);
+        }
+    }
+
+    /**
+     * @return the file elements in document order
+     */
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+
+    public Optional<FileEntry> getByFilepath(String filepath) {
+        return Optional.ofNullable(byFilepath.get(filepath));
+    }
+
+    public Optional<FileEntry> getByIdentifier(String identifier) {
+        return Optional.ofNullable(byIdentifier.get(identifier));
+    }
+
+    public List<FileEntry> getByRights(Rights rights) {
+        return Collections.unmodifiableList(byRights.getOrDefault(rights, List.of()));
+    }
+
+    public List<FileEntry> getNoneNone() {
+        return getByRights(Rights.NONE_NONE);
+    }
+
+    /**
+     * @return a view with only the file elements that match, in document order
+     */
+    public FilesXml filter(Predicate<FileEntry> predicate) {
+        return new FilesXml(files.stream().filter(predicate).toList());
+    }
+
+    public FilesXml withoutNoneNone() {
+        return filter(file -> !file.isNoneNone());
+    }
+
+    public static FilesXml read(Path path) throws IOException, XMLStreamException {
+        List<FileEntry> files = new ArrayList<>();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            var reader = createInputFactory().createXMLStreamReader(inputStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "file".equals(reader.getLocalName()))
+                        files.add(readFile(reader));
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        return new FilesXml(files);
+    }
+
+    private static FileEntry readFile(XMLStreamReader reader) throws XMLStreamException {
+        var filepath = reader.getAttributeValue(null, "filepath");
+        String identifier = null;
+        String source = null;
+        String accessibleToRights = null;
+        String visibleToRights = null;
+        String extent = null;
+        var depth = 1;
+        while (depth > 0) {
+            var event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT) {
+                var localName = reader.getLocalName();
+                var isDcterms = DCTERMS_NAMESPACE.equals(reader.getNamespaceURI());
+                // the first occurrence wins, as with getElementsByTagName(...).item(0)
+                if (isDcterms && "identifier".equals(localName) && identifier == null)
+                    identifier = reader.getElementText();
+                else if (isDcterms && "source".equals(localName) && source == null)
+                    source = reader.getElementText();
+                else if ("accessibleToRights".equals(localName) && accessibleToRights == null)
+                    accessibleToRights = reader.getElementText();
+                else if ("visibleToRights".equals(localName) && visibleToRights == null)
+                    visibleToRights = reader.getElementText();
+                else if (isDcterms && "extent".equals(localName) && extent == null)
+                    extent = reader.getElementText();
+                else
+                    depth++;
+            }
+        }
+        return new FileEntry(filepath, identifier, source, accessibleToRights, visibleToRights, extent);
+    }
+
+    /**
+     * Copies files.xml while dropping the file elements with the given filepaths. The source and target may be the same file.
+     */
+    public static void writeWithout(Path source, Path target, Set<String> filepathsToDrop) throws IOException, XMLStreamException {
+        rewrite(source, target, filepathsToDrop, List.of());
+    }
+
+    /**
+     * Copies files.xml in a single streaming pass, dropping the file elements with the given filepaths and appending elements for the added files. The
+     * source and target may be the same file.
+     */
+    public static void rewrite(Path source, Path target, Set<String> filepathsToDrop, List<AddedFile> filesToAdd) throws IOException, XMLStreamException {
+        var tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (InputStream inputStream = Files.newInputStream(source);
+            OutputStream outputStream = Files.newOutputStream(tmp)) {
+            var reader = createInputFactory().createXMLEventReader(inputStream);
+            var writer = XMLOutputFactory.newInstance().createXMLEventWriter(outputStream, "UTF-8");
+            try {
+                copy(reader, writer, filepathsToDrop, filesToAdd);
+            }
+            finally {
+                writer.close();
+                reader.close();
+            }
+        }
+        Files.move(tmp, target, REPLACE_EXISTING);
+    }
+
+    private static void copy(XMLEventReader reader, XMLEventWriter writer, Set<String> filepathsToDrop, List<AddedFile> filesToAdd) throws XMLStreamException {
+        var skipDepth = 0;
+        var depth = 0;
+        QName root = null;
+        // the prefix of dcterms bound by the root element, null if it is not bound there
+        String dctermsPrefix = null;
+        while (reader.hasNext()) {
+            var event = reader.nextEvent();
+            if (skipDepth > 0) {
+                if (event.isStartElement())
+                    skipDepth++;
+                else if (event.isEndElement())
+                    skipDepth--;
+                continue;
+            }
+            if (event.isStartElement()) {
+                if (depth == 0) {
+                    root = event.asStartElement().getName();
+                    dctermsPrefix = event.asStartElement().getNamespaceContext().getPrefix(DCTERMS_NAMESPACE);
+                }
+                if (isFileToDrop(event.asStartElement(), filepathsToDrop)) {
+                    skipDepth = 1;
+                    continue;
+                }
+                depth++;
+            }
+            else if (event.isEndElement() && --depth == 0 && !filesToAdd.isEmpty()) {
+                for (var file : filesToAdd) {
+                    writeFile(writer, root, dctermsPrefix, file);
+                }
+                writer.add(EVENT_FACTORY.createCharacters("\n"));
+            }
+            writer.add(event);
+        }
+    }
+
+    /**
+     * Writes a file element with the prefixes of the root element, declaring dcterms on the file element if the root does not bind it.
+     */
+    private static void writeFile(XMLEventWriter writer, QName root, String dctermsPrefix, AddedFile file) throws XMLStreamException {
+        var filesPrefix = root.getPrefix();
+        var filesNamespace = root.getNamespaceURI();
+        List<Namespace> namespaces = new ArrayList<>();
+        if (dctermsPrefix == null) {
+            dctermsPrefix = "dct";
+            namespaces.add(EVENT_FACTORY.createNamespace(dctermsPrefix, DCTERMS_NAMESPACE));
+        }
+        writer.add(EVENT_FACTORY.createCharacters("\n  "));
+        writer.add(EVENT_FACTORY.createStartElement(filesPrefix, filesNamespace, "file",
+            List.of(EVENT_FACTORY.createAttribute("filepath", file.filepath())).iterator(), namespaces.iterator()));
+        writeElement(writer, dctermsPrefix, DCTERMS_NAMESPACE, "title", Path.of(file.filepath()).getFileName().toString());
+        writeElement(writer, dctermsPrefix, DCTERMS_NAMESPACE, "format", file.format());
+        writeElement(writer, filesPrefix, filesNamespace, "accessibleToRights", file.rights().accessibleToRights());
+        writeElement(writer, filesPrefix, filesNamespace, "visibleToRights", file.rights().visibleToRights());
+        writer.add(EVENT_FACTORY.createCharacters("\n  "));
+        writer.add(EVENT_FACTORY.createEndElement(filesPrefix, filesNamespace, "file", namespaces.iterator()));
+    }
+
+    private static void writeElement(XMLEventWriter writer, String prefix, String namespace, String localName, String value) throws XMLStreamException {
+        writer.add(EVENT_FACTORY.createCharacters("\n    "));
+        writer.add(EVENT_FACTORY.createStartElement(prefix, namespace, localName));
+        writer.add(EVENT_FACTORY.createCharacters(value));
+        writer.add(EVENT_FACTORY.createEndElement(prefix, namespace, localName));
+    }
+
+    private static boolean isFileToDrop(StartElement element, Set<String> filepathsToDrop) {
+        if (!"file".equals(element.getName().getLocalPart()))
+            return false;
+        var filepath = element.getAttributeByName(FILEPATH);
+        return filepath != null && filepathsToDrop.contains(filepath.getValue());
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        var factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+}
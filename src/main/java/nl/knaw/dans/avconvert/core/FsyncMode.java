@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+/**
+ * When the {@link CopyEngine} forces the copied files to disk.
+ */
+public enum FsyncMode {
+    /**
+     * Leave it to the operating system.
+     */
+    NONE,
+    /**
+     * After each file.
+     */
+    PER_FILE,
+    /**
+     * The files written for a revision and its directories together, before the stage that wrote them is recorded in the journal, see
+     * {@link CopyEngine#syncBatch}.
+     */
+    BATCHED
+}
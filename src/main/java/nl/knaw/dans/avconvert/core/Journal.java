@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.DSYNC;
+
+/**
+ * Append-only record of the progress of the conversion of one bag, so that an interrupted conversion can resume at the last completed stage. Each
+ * line is written and synced before the next stage starts, a line that was not completely written is ignored when the journal is read.
+ *
+ * <pre>
+ * id revision2 &lt;uuid&gt;
+ * checksum sha1 &lt;value&gt; data/file.mp4
+ * stage AV_REPLACED
+ * </pre>
+ */
+@Slf4j
+public class Journal {
+
+    public enum Stage {
+        REVISION1_COPIED,
+        AV_REPLACED,
+        REVISION1_WRITTEN,
+        REVISION2_WRITTEN,
+        REVISION3_WRITTEN,
+        CONVERTED
+    }
+
+    private final Path file;
+    private final Set<Stage> completedStages = EnumSet.noneOf(Stage.class);
+    private final Map<String, String> ids = new HashMap<>();
+    private final Map<Path, Map<SupportedAlgorithm, String>> checksums = new HashMap<>();
+
+    private Journal(Path file) {
+        this.file = file;
+    }
+
+    public static Path getFile(Path outputDir, String bagId) {
+        return outputDir.resolve(".journal").resolve(bagId + ".txt");
+    }
+
+    /**
+     * Reads the journal of the bag, an empty journal if the conversion was not started yet. Nothing is written until a stage is recorded.
+     */
+    public static Journal read(Path outputDir, String bagId) throws IOException {
+        var journal = new Journal(getFile(outputDir, bagId));
+        if (!Files.exists(journal.file))
+            return journal;
+        var content = Files.readString(journal.file);
+        var lines = content.lines().toList();
+        if (!content.isEmpty() && !content.endsWith("\n")) {
+            log.warn("Ignoring incomplete last line of {}", journal.file);
+            lines = lines.subList(0, lines.size() - 1);
+        }
+        for (var line : lines) {
+            var fields = line.split(" ", 4);
+            switch (fields[0]) {
+                case "stage" -> journal.completedStages.add(Stage.valueOf(fields[1]));
+                case "id" -> journal.ids.put(fields[1], fields[2]);
+                case "checksum" -> journal.checksums
+                    .computeIfAbsent(Path.of(fields[3]), path -> new HashMap<>())
+                    .put(StandardSupportedAlgorithms.valueOf(fields[1].toUpperCase()), fields[2]);
+                default -> throw new IllegalStateException("Unexpected line in %s: %s".formatted(journal.file, line));
+            }
+        }
+        return journal;
+    }
+
+    public boolean isCompleted(Stage stage) {
+        return completedStages.contains(stage);
+    }
+
+    public void complete(Stage stage) throws IOException {
+        append("stage " + stage);
+        completedStages.add(stage);
+    }
+
+    /**
+     * @return the id recorded for the revision, a new random UUID that is recorded before it is returned if there is none yet
+     */
+    public String getId(String revision) throws IOException {
+        var id = ids.get(revision);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            append("id " + revision + " " + id);
+            ids.put(revision, id);
+        }
+        return id;
+    }
+
+    public Map<Path, Map<SupportedAlgorithm, String>> getChecksums() {
+        return checksums;
+    }
+
+    public void addChecksums(Map<Path, Map<SupportedAlgorithm, String>> newChecksums) throws IOException {
+        var lines = new StringBuilder();
+        for (var entry : newChecksums.entrySet()) {
+            for (var checksum : entry.getValue().entrySet()) {
+                lines.append("checksum %s %s %s%n".formatted(checksum.getKey().getBagitName(), checksum.getValue(), entry.getKey()));
+            }
+        }
+        createParent();
+        Files.writeString(file, lines, CREATE, APPEND, DSYNC);
+        newChecksums.forEach((path, values) -> checksums.computeIfAbsent(path, key -> new HashMap<>()).putAll(values));
+    }
+
+    private void append(String line) throws IOException {
+        createParent();
+        Files.writeString(file, line + System.lineSeparator(), CREATE, APPEND, DSYNC);
+    }
+
+    private void createParent() throws IOException {
+        Files.createDirectories(file.getParent());
+    }
+}
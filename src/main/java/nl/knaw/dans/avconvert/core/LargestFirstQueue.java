@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out the bags of a batch to the workers, the largest estimated work first, so that the batch does not end with one worker converting a huge
+ * bag while the others are idle. A bag is only started while the bytes to copy of the bags in progress stay within maxBytesInFlight. A bag that does
+ * not fit holds back the smaller ones until it can start, otherwise a steady stream of smaller bags that fit would keep it waiting until the end of the
+ * batch. A bag that exceeds the limit by itself is started when no other bag is in progress.
+ */
+class LargestFirstQueue {
+
+    private final Deque<Path> pending;
+    private final Map<Path, Long> bytesPerBag = new HashMap<>();
+    private final long maxBytesInFlight;
+    private long bytesInFlight = 0;
+    private int bagsInFlight = 0;
+
+    LargestFirstQueue(Map<Path, WorkEstimate> estimates, long maxBytesInFlight) {
+        this.maxBytesInFlight = maxBytesInFlight;
+        List<Path> bags = new ArrayList<>(estimates.keySet());
+        bags.sort(Comparator.comparing((Path bag) -> estimates.get(bag).total()).reversed().thenComparing(Comparator.naturalOrder()));
+        this.pending = new ArrayDeque<>(bags);
+        estimates.forEach((bag, estimate) -> bytesPerBag.put(bag, estimate.bytesToCopy()));
+    }
+
+    /**
+     * Waits until a bag can be started.
+     *
+     * @return the bag to convert next, null if all bags were handed out
+     */
+    synchronized Path take() throws InterruptedException {
+        while (!pending.isEmpty()) {
+            var bag = pending.peek();
+            var bytes = bytesPerBag.get(bag);
+            if (bagsInFlight == 0 || bytesInFlight + bytes <= maxBytesInFlight) {
+                pending.remove();
+                bytesInFlight += bytes;
+                bagsInFlight++;
+                return bag;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    synchronized void done(Path bag) {
+        bytesInFlight -= bytesPerBag.get(bag);
+        bagsInFlight--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.apache.commons.lang3.ObjectUtils.isNotEmpty;
+
+/**
+ * Immutable lookup of the mapping CSV, read once per run and shared by all conversions.
+ */
+@Slf4j
+public class MappingIndex {
+
+    /**
+     * A row of the mapping CSV with the paths resolved against avDir and springfieldDir. The springfield path is null if not provided.
+     */
+    public record Entry(String fileId, String datasetId, Path pathInAvDir, Path pathInSpringfieldDir) {
+    }
+
+    private final Map<String, Entry> byFileId;
+    private final Map<String, List<Entry>> byBagParent;
+    private final Map<String, List<Entry>> byDatasetId;
+
+    private MappingIndex(Map<String, Entry> byFileId, Map<String, List<Entry>> byBagParent, Map<String, List<Entry>> byDatasetId) {
+        this.byFileId = Map.copyOf(byFileId);
+        this.byBagParent = copyOf(byBagParent);
+        this.byDatasetId = copyOf(byDatasetId);
+    }
+
+    public static MappingIndex read(Path csv, Path avDir, Path springfieldDir) throws IOException {
+        Map<String, Entry> byFileId = new HashMap<>();
+        Map<String, List<Entry>> byBagParent = new HashMap<>();
+        Map<String, List<Entry>> byDatasetId = new HashMap<>();
+        try (Reader reader = Files.newBufferedReader(csv);
+            CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withHeader())) {
+
+            for (CSVRecord csvRecord : csvParser) {
+                var pathInAvDir = csvRecord.get("path_in_AV_dir");
+                if (isNotEmpty(pathInAvDir)) {
+                    var pathInSpringfieldDir = getOptional(csvRecord, "path_in_springfield_dir");
+                    var entry = new Entry(
+                        csvRecord.get("easy_file_id"),
+                        getOptional(csvRecord, "dataset_id"),
+                        avDir.resolve(pathInAvDir),
+                        pathInSpringfieldDir == null ? null : springfieldDir.resolve(pathInSpringfieldDir)
+                    );
+                    byFileId.put(entry.fileId(), entry);
+                    // the path in the AV dir starts with the parent of the bag, which is supposed to be a UUID hence unique
+                    byBagParent.computeIfAbsent(Path.of(pathInAvDir).getName(0).toString(), k -> new ArrayList<>()).add(entry);
+                    if (entry.datasetId() != null)
+                        byDatasetId.computeIfAbsent(entry.datasetId(), k -> new ArrayList<>()).add(entry);
+                }
+                else
+                    log.warn("No AV path found for: {}", csvRecord);
+            }
+        }
+        log.debug("Read {} mapped files from {}", byFileId.size(), csv);
+        return new MappingIndex(byFileId, byBagParent, byDatasetId);
+    }
+
+    public Optional<Entry> get(String fileId) {
+        return Optional.ofNullable(byFileId.get(fileId));
+    }
+
+    public List<Entry> getByBagParent(String bagParent) {
+        return byBagParent.getOrDefault(bagParent, List.of());
+    }
+
+    public List<Entry> getByDatasetId(String datasetId) {
+        return byDatasetId.getOrDefault(datasetId, List.of());
+    }
+
+    private static String getOptional(CSVRecord csvRecord, String column) {
+        if (!csvRecord.isSet(column))
+            return null;
+        var value = csvRecord.get(column);
+        return isNotEmpty(value) ? value : null;
+    }
+
+    private static Map<String, List<Entry>> copyOf(Map<String, List<Entry>> map) {
+        Map<String, List<Entry>> copy = new HashMap<>();
+        map.forEach((key, entries) -> copy.put(key, List.copyOf(entries)));
+        return Map.copyOf(copy);
+    }
+}
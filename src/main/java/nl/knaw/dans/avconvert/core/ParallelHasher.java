@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes files in parallel on a bounded pool, each task with its own digests and buffer. The pool is shared by all bags converted in parallel, so it also
+ * bounds the total hashing load of a batch.
+ */
+public class ParallelHasher {
+
+    private final ExecutorService executor;
+    private final ChecksumCache checksumCache;
+
+    public ParallelHasher(int numberOfThreads) {
+        this(numberOfThreads, null);
+    }
+
+    /**
+     * @param checksumCache the checksums of files hashed before, null to always hash
+     */
+    public ParallelHasher(int numberOfThreads, ChecksumCache checksumCache) {
+        this.executor = new ForkJoinPool(numberOfThreads);
+        this.checksumCache = checksumCache;
+    }
+
+    /**
+     * @return the checksums per file, ordered by path
+     */
+    public SortedMap<Path, Map<SupportedAlgorithm, String>> hash(Collection<Path> files, Collection<SupportedAlgorithm> algorithms)
+        throws IOException, NoSuchAlgorithmException {
+        var sortedFiles = files.stream().sorted().distinct().toList();
+        List<Callable<Map<SupportedAlgorithm, String>>> tasks = new ArrayList<>();
+        for (var file : sortedFiles) {
+            tasks.add(() -> hash(file, algorithms));
+        }
+        try {
+            var futures = executor.invokeAll(tasks);
+            SortedMap<Path, Map<SupportedAlgorithm, String>> checksums = new TreeMap<>();
+            for (int i = 0; i < sortedFiles.size(); i++) {
+                checksums.put(sortedFiles.get(i), futures.get(i).get());
+            }
+            return checksums;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing " + files.size() + " files");
+        }
+        catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Hashes the files in parallel and compares them with the expected checksums. The first file that does not match stops the files that were not
+     * hashed yet.
+     *
+     * @param expected the expected checksums per file
+     * @throws IllegalStateException if a checksum does not match
+     */
+    public void verify(Map<Path, Map<SupportedAlgorithm, String>> expected) throws IOException, NoSuchAlgorithmException {
+        var completionService = new ExecutorCompletionService<Path>(executor);
+        List<Future<Path>> futures = new ArrayList<>();
+        try {
+            for (var entry : expected.entrySet()) {
+                futures.add(completionService.submit(() -> {
+                    verify(entry.getKey(), entry.getValue());
+                    return entry.getKey();
+                }));
+            }
+            for (var i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying " + expected.size() + " files");
+        }
+        catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private void verify(Path file, Map<SupportedAlgorithm, String> expected) throws IOException, NoSuchAlgorithmException {
+        var actual = hash(file, expected.keySet());
+        for (var entry : expected.entrySet()) {
+            if (!entry.getValue().equalsIgnoreCase(actual.get(entry.getKey()))) {
+                throw new IllegalStateException("%s checksum of %s is %s, expected %s"
+                    .formatted(entry.getKey().getBagitName(), file, actual.get(entry.getKey()), entry.getValue()));
+            }
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) throws NoSuchAlgorithmException {
+        var cause = e.getCause();
+        if (cause instanceof IOException ioException)
+            return ioException;
+        if (cause instanceof NoSuchAlgorithmException noSuchAlgorithmException)
+            throw noSuchAlgorithmException;
+        if (cause instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        throw new IllegalStateException(cause);
+    }
+
+    private Map<SupportedAlgorithm, String> hash(Path file, Collection<SupportedAlgorithm> algorithms) throws IOException, NoSuchAlgorithmException {
+        if (checksumCache == null)
+            return FileHasher.hash(file, algorithms);
+        var cached = checksumCache.get(file, algorithms);
+        if (cached != null)
+            return cached;
+        var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        var checksums = FileHasher.hash(file, algorithms);
+        if (attributes.size() >= ChecksumCache.MINIMUM_FILE_SIZE)
+            checksumCache.put(file, attributes, checksums);
+        return checksums;
+    }
+}
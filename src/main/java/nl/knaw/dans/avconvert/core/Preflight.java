@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static nl.knaw.dans.avconvert.core.Journal.Stage.AV_REPLACED;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION1_COPIED;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION2_WRITTEN;
+import static nl.knaw.dans.avconvert.core.Journal.Stage.REVISION3_WRITTEN;
+
+/**
+ * Checks whether a bag can be converted before any bytes are written: mapping versus files.xml, existence and sizes of the AV and Springfield files
+ * and the free space in the output directory.
+ */
+@Slf4j
+public class Preflight {
+
+    private final MappingIndex mapping;
+    private final CopyStrategy copyStrategy;
+
+    public Preflight(MappingIndex mapping, CopyStrategy copyStrategy) {
+        this.mapping = mapping;
+        this.copyStrategy = copyStrategy;
+    }
+
+    /**
+     * @return the estimated number of bytes the conversion still writes to the output directory, without the revisions that the journal of the bag
+     *     records as written
+     * @throws IllegalStateException if the bag can not be converted
+     */
+    public long check(Path inputDir, FilesXml filesXml, Path outputDir) throws IOException {
+        return check(inputDir, BagInventory.read(inputDir), filesXml, outputDir, Journal.read(outputDir, inputDir.getFileName().toString()));
+    }
+
+    /**
+     * @param inventory the inventory of the input bag, the bag itself is not walked
+     * @param journal   the journal of the bag in the output directory
+     */
+    public long check(Path inputDir, BagInventory inventory, FilesXml filesXml, Path outputDir, Journal journal) throws IOException {
+        // cross-checks the placeholders of the input bag with the mapping
+        AVReplacer.crossCheckReplacedMapped(mapping, inputDir, AVReplacer.getIdentifierToDestMap(filesXml, inventory).keySet());
+
+        var avBytes = 0L;
+        for (var entry : mapping.getByBagParent(inputDir.getParent().getFileName().toString())) {
+            avBytes += getSize(entry.fileId(), entry.pathInAvDir());
+        }
+        var revision2FilesXml = filesXml.withoutNoneNone();
+        var springfieldBytes = 0L;
+        for (var file : revision2FilesXml.getFiles()) {
+            if (file.identifier() != null) {
+                var springfieldFile = mapping.get(file.identifier()).map(MappingIndex.Entry::pathInSpringfieldDir);
+                if (springfieldFile.isPresent())
+                    springfieldBytes += getSize(file.identifier(), springfieldFile.get());
+            }
+        }
+
+        // with COPY each revision gets its own copy of the payload, otherwise only the AV and Springfield files take space
+        var copiedBytes = copyStrategy == CopyStrategy.COPY ? inventory.getTotalSize() : 0L;
+        var requiredBytes = 0L;
+        if (!journal.isCompleted(REVISION1_COPIED))
+            requiredBytes += copiedBytes;
+        if (!journal.isCompleted(AV_REPLACED))
+            requiredBytes += avBytes;
+        if (copyStrategy == CopyStrategy.COPY) {
+            copiedBytes += avBytes;
+        }
+        if (!journal.isCompleted(REVISION2_WRITTEN))
+            requiredBytes += copiedBytes;
+        if (!journal.isCompleted(REVISION3_WRITTEN) && BagVersion3.hasSpringfieldFiles(revision2FilesXml, mapping))
+            requiredBytes += copiedBytes + springfieldBytes;
+        var usableBytes = Files.getFileStore(getExistingAncestor(outputDir)).getUsableSpace();
+        if (requiredBytes > usableBytes) {
+            var msg = "Not enough space in %s for %s: %d bytes required, %d bytes available".formatted(outputDir, inputDir, requiredBytes, usableBytes);
+            log.error(msg);
+            throw new IllegalStateException(msg);
+        }
+        log.debug("Preflight of {} passed, {} bytes required", inputDir, requiredBytes);
+        return requiredBytes;
+    }
+
+    private long getSize(String fileId, Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            var msg = "File %s not found: %s".formatted(fileId, path);
+            log.error(msg);
+            throw new IllegalStateException(msg);
+        }
+        return Files.size(path);
+    }
+
+    static Path getExistingAncestor(Path path) {
+        var existing = path.toAbsolutePath();
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return existing;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Creates a new revision of a bag. Only the payload files (under data/) are linked according to the {@link CopyStrategy}, these are never modified in place:
+ * {@link AVReplacer} replaces them and {@link BagVersion2} deletes them.
+ */
+@Slf4j
+public class RevisionCopier {
+
+    // keeps the command line of cp well below the limit of the OS for long paths
+    private static final int MAX_FILES_PER_CP = 256;
+
+    private final CopyStrategy strategy;
+    private final CopyEngine copyEngine;
+
+    public RevisionCopier(CopyStrategy strategy) {
+        this(strategy, new CopyEngine());
+    }
+
+    public RevisionCopier(CopyStrategy strategy, CopyEngine copyEngine) {
+        this.strategy = strategy;
+        this.copyEngine = copyEngine;
+    }
+
+    /**
+     * @return the number of bytes that were copied rather than linked
+     */
+    public long copy(Path sourceBag, Path targetBag) throws IOException {
+        return copy(sourceBag, BagInventory.read(sourceBag), targetBag);
+    }
+
+    /**
+     * Copies the bag as listed in its inventory, without walking it.
+     *
+     * @return the number of bytes that were copied rather than linked
+     */
+    public long copy(Path sourceBag, BagInventory inventory, Path targetBag) throws IOException {
+        log.debug("Copying {} to {} with strategy {}", sourceBag, targetBag, strategy);
+        for (var dir : inventory.getDirectories()) {
+            Files.createDirectories(targetBag.resolve(dir));
+        }
+        var copiedBytes = 0L;
+        // once linking failed, the rest of the bag is on the same devices, so don't try again
+        var linkingFailed = false;
+        // reflinks are created by one cp per directory, or per MAX_FILES_PER_CP files, rather than one per file
+        SortedMap<Path, List<Path>> toReflinkPerDir = new TreeMap<>();
+        for (var relativePath : inventory.getFiles().keySet()) {
+            var file = sourceBag.resolve(relativePath);
+            var target = targetBag.resolve(relativePath);
+            checkInterrupted(targetBag);
+            if (strategy == CopyStrategy.COPY || linkingFailed || !relativePath.startsWith("data")) {
+                copiedBytes += copyEngine.copy(file, target);
+            }
+            else if (strategy == CopyStrategy.REFLINK) {
+                toReflinkPerDir.computeIfAbsent(relativePath.getParent(), dir -> new ArrayList<>()).add(relativePath);
+            }
+            else if (!hardLink(file, target)) {
+                linkingFailed = true;
+                copiedBytes += copyEngine.copy(file, target);
+            }
+        }
+        for (var entry : toReflinkPerDir.entrySet()) {
+            var files = entry.getValue();
+            for (var from = 0; from < files.size(); from += MAX_FILES_PER_CP) {
+                var batch = files.subList(from, Math.min(from + MAX_FILES_PER_CP, files.size()));
+                checkInterrupted(targetBag);
+                if (!linkingFailed && reflink(sourceBag, batch, targetBag.resolve(entry.getKey())))
+                    continue;
+                if (!linkingFailed)
+                    log.warn("Could not create reflinks in {}, falling back to copy", targetBag.resolve(entry.getKey()));
+                linkingFailed = true;
+                for (var relativePath : batch) {
+                    // cp may have created some of the reflinks before it failed
+                    var target = targetBag.resolve(relativePath);
+                    Files.deleteIfExists(target);
+                    copiedBytes += copyEngine.copy(sourceBag.resolve(relativePath), target);
+                }
+            }
+        }
+        return copiedBytes;
+    }
+
+    /**
+     * Stops the copy when the thread is interrupted, because the conversion is aborted. Copying a large file stops by itself, creating links does not.
+     */
+    private static void checkInterrupted(Path targetBag) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Interrupted while copying " + targetBag);
+    }
+
+    private static boolean hardLink(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            log.warn("Could not create hard link {}, falling back to copy: {}", target, e.getMessage());
+            Files.deleteIfExists(target);
+            return false;
+        }
+    }
+
+    /**
+     * Reflinks the files, which are all in the same directory, into targetDir with one cp.
+     */
+    private static boolean reflink(Path sourceBag, List<Path> files, Path targetDir) throws IOException {
+        List<String> command = new ArrayList<>(List.of("cp", "--reflink=always", "--preserve=timestamps", "--target-directory=" + targetDir, "--"));
+        files.forEach(file -> command.add(sourceBag.resolve(file).toString()));
+        Process process;
+        try {
+            process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .start();
+        }
+        catch (IOException e) {
+            log.debug("Could not start cp: {}", e.getMessage());
+            return false;
+        }
+        try {
+            var output = new String(process.getInputStream().readAllBytes());
+            var exitCode = process.waitFor();
+            if (exitCode != 0)
+                log.debug("cp --reflink=always exited with {}: {}", exitCode, output);
+            return exitCode == 0;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating reflinks in " + targetDir, e);
+        }
+    }
+}
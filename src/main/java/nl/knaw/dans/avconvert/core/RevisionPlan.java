@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.bagit.domain.Manifest;
+import nl.knaw.dans.bagit.exceptions.InvalidBagitFileFormatException;
+import nl.knaw.dans.bagit.exceptions.MaliciousPathException;
+import nl.knaw.dans.bagit.exceptions.UnparsableVersionException;
+import nl.knaw.dans.bagit.exceptions.UnsupportedAlgorithmException;
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import nl.knaw.dans.bagit.hash.SupportedAlgorithm;
+import nl.knaw.dans.bagit.reader.BagReader;
+import nl.knaw.dans.bagit.writer.ManifestWriter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The payload and tag manifests of a revision, in memory. The manifests of the first revision are read once from the input bag, those of the next
+ * revisions are derived from the previous one, so the manifests of a revision are written without reading the revision from disk. Only the tag files
+ * the conversion rewrites (bag-info.txt, metadata/files.xml and the payload manifests) and tag files without all checksums in the plan are hashed
+ * when a revision is written; the other tag files keep their checksums. Their modification times can not tell whether they changed, because the tag
+ * files are copied into each revision.
+ * <p>
+ * The paths are relative to the bag.
+ */
+public class RevisionPlan {
+
+    private static final List<Path> CHANGED_TAG_FILES = List.of(Path.of("bag-info.txt"), Path.of("metadata", "files.xml"));
+
+    private final Charset fileEncoding;
+    private final List<SupportedAlgorithm> payloadAlgorithms;
+    private final List<SupportedAlgorithm> tagAlgorithms;
+    private final SortedMap<Path, Map<SupportedAlgorithm, String>> payload;
+    private final SortedMap<Path, Map<SupportedAlgorithm, String>> tags;
+
+    // payload files of which not all checksums are known yet, hashed when the revision is written
+    private final Set<Path> payloadToHash;
+
+    private RevisionPlan(Charset fileEncoding, List<SupportedAlgorithm> payloadAlgorithms, List<SupportedAlgorithm> tagAlgorithms,
+        SortedMap<Path, Map<SupportedAlgorithm, String>> payload, SortedMap<Path, Map<SupportedAlgorithm, String>> tags, Set<Path> payloadToHash) {
+        this.fileEncoding = fileEncoding;
+        this.payloadAlgorithms = payloadAlgorithms;
+        this.tagAlgorithms = tagAlgorithms;
+        this.payload = payload;
+        this.tags = tags;
+        this.payloadToHash = payloadToHash;
+    }
+
+    public static RevisionPlan read(Path bagDir)
+        throws IOException, MaliciousPathException, UnparsableVersionException, UnsupportedAlgorithmException, InvalidBagitFileFormatException {
+        var bag = new BagReader().read(bagDir);
+        var rootDir = bag.getRootDir().toAbsolutePath().normalize();
+        return new RevisionPlan(
+            bag.getFileEncoding(),
+            getAlgorithms(bag.getPayLoadManifests()),
+            getAlgorithms(bag.getTagManifests()),
+            toChecksumsPerFile(rootDir, bag.getPayLoadManifests()),
+            toChecksumsPerFile(rootDir, bag.getTagManifests()),
+            Set.of()
+        );
+    }
+
+    public SortedMap<Path, Map<SupportedAlgorithm, String>> getPayload() {
+        return payload;
+    }
+
+    public SortedMap<Path, Map<SupportedAlgorithm, String>> getTags() {
+        return tags;
+    }
+
+    /**
+     * @param files added or replaced payload files with the checksums that are already known, files without all checksums are hashed on write
+     * @return the plan of the next revision
+     */
+    public RevisionPlan withPayloads(Map<Path, Map<SupportedAlgorithm, String>> files) {
+        var newPayload = new TreeMap<>(payload);
+        var newPayloadToHash = new HashSet<>(payloadToHash);
+        files.forEach((file, checksums) -> {
+            var path = file.normalize();
+            newPayload.put(path, checksums);
+            if (checksums.keySet().containsAll(payloadAlgorithms))
+                newPayloadToHash.remove(path);
+            else
+                newPayloadToHash.add(path);
+        });
+        return new RevisionPlan(fileEncoding, payloadAlgorithms, tagAlgorithms, newPayload, new TreeMap<>(tags), newPayloadToHash);
+    }
+
+    /**
+     * @return the plan of the next revision
+     */
+    public RevisionPlan withoutPayloads(Collection<Path> files) {
+        var removed = new HashSet<Path>();
+        files.forEach(file -> removed.add(file.normalize()));
+        var newPayload = new TreeMap<>(payload);
+        newPayload.keySet().removeAll(removed);
+        var newPayloadToHash = new HashSet<>(payloadToHash);
+        newPayloadToHash.removeAll(removed);
+        return new RevisionPlan(fileEncoding, payloadAlgorithms, tagAlgorithms, newPayload, new TreeMap<>(tags), newPayloadToHash);
+    }
+
+    /**
+     * Writes the payload manifests and the tag manifests of the revision, after hashing the payload files without all checksums and the tag files the
+     * conversion rewrites. The plan itself is not changed.
+     *
+     * @return the plan with the checksums that were written, from which the plan of the next revision is derived
+     */
+    public RevisionPlan write(Path bagDir, ParallelHasher hasher) throws IOException, NoSuchAlgorithmException {
+        var writtenPayload = new TreeMap<>(payload);
+        if (!payloadToHash.isEmpty()) {
+            hasher.hash(resolve(bagDir, payloadToHash), payloadAlgorithms)
+                .forEach((file, checksums) -> writtenPayload.put(bagDir.relativize(file), checksums));
+        }
+        ManifestWriter.writePayloadManifests(toManifests(bagDir, payloadAlgorithms, writtenPayload), bagDir, bagDir, fileEncoding);
+
+        var tagFiles = listTagFiles(bagDir);
+        var writtenTags = new TreeMap<>(tags);
+        // tag files that are no longer in the revision
+        writtenTags.keySet().retainAll(tagFiles);
+        Set<Path> tagFilesToHash = new LinkedHashSet<>();
+        for (var algorithm : payloadAlgorithms) {
+            tagFilesToHash.add(Path.of("manifest-" + algorithm.getBagitName() + ".txt"));
+        }
+        for (var file : CHANGED_TAG_FILES) {
+            if (tagFiles.contains(file))
+                tagFilesToHash.add(file);
+        }
+        for (var file : tagFiles) {
+            var checksums = writtenTags.get(file);
+            if (checksums == null || !checksums.keySet().containsAll(tagAlgorithms))
+                tagFilesToHash.add(file);
+        }
+        hasher.hash(resolve(bagDir, tagFilesToHash), tagAlgorithms)
+            .forEach((file, checksums) -> writtenTags.put(bagDir.relativize(file), checksums));
+        ManifestWriter.writeTagManifests(toManifests(bagDir, tagAlgorithms, writtenTags), bagDir, bagDir, fileEncoding);
+        return new RevisionPlan(fileEncoding, payloadAlgorithms, tagAlgorithms, writtenPayload, writtenTags, Set.of());
+    }
+
+    /**
+     * @return the algorithms of the payload manifests found in the root of the bag
+     */
+    public static List<SupportedAlgorithm> getPayloadAlgorithms(Path bagDir) throws IOException {
+        try (var files = Files.list(bagDir)) {
+            return files
+                .map(file -> file.getFileName().toString())
+                .filter(name -> name.startsWith("manifest-") && name.endsWith(".txt"))
+                .map(name -> name.substring("manifest-".length(), name.length() - ".txt".length()))
+                .map(name -> (SupportedAlgorithm) StandardSupportedAlgorithms.valueOf(name.toUpperCase()))
+                .toList();
+        }
+    }
+
+    private static List<SupportedAlgorithm> getAlgorithms(Set<Manifest> manifests) {
+        return manifests.stream().map(Manifest::getAlgorithm).toList();
+    }
+
+    private static SortedMap<Path, Map<SupportedAlgorithm, String>> toChecksumsPerFile(Path rootDir, Set<Manifest> manifests) {
+        SortedMap<Path, Map<SupportedAlgorithm, String>> checksumsPerFile = new TreeMap<>();
+        for (var manifest : manifests) {
+            manifest.getFileToChecksumMap().forEach((file, checksum) -> checksumsPerFile
+                .computeIfAbsent(rootDir.relativize(file.toAbsolutePath().normalize()), path -> new LinkedHashMap<>())
+                .put(manifest.getAlgorithm(), checksum));
+        }
+        return checksumsPerFile;
+    }
+
+    private static Set<Manifest> toManifests(Path bagDir, List<SupportedAlgorithm> algorithms, SortedMap<Path, Map<SupportedAlgorithm, String>> checksumsPerFile) {
+        var manifests = new LinkedHashSet<Manifest>();
+        for (var algorithm : algorithms) {
+            var manifest = new Manifest(algorithm);
+            checksumsPerFile.forEach((file, checksums) -> manifest.getFileToChecksumMap().put(bagDir.resolve(file), checksums.get(algorithm)));
+            manifests.add(manifest);
+        }
+        return manifests;
+    }
+
+    /**
+     * @return the files outside data/, except the tag manifests, which are not in a tag manifest themselves
+     */
+    private static Set<Path> listTagFiles(Path bagDir) throws IOException {
+        var payloadDir = bagDir.resolve("data");
+        Set<Path> tagFiles = new HashSet<>();
+        Files.walkFileTree(bagDir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(payloadDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                var relativePath = bagDir.relativize(file);
+                var isTagManifest = relativePath.getNameCount() == 1 && relativePath.toString().startsWith("tagmanifest-");
+                if (!isTagManifest && attrs.isRegularFile())
+                    tagFiles.add(relativePath);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return tagFiles;
+    }
+
+    private static List<Path> resolve(Path bagDir, Collection<Path> files) {
+        return files.stream().map(bagDir::resolve).toList();
+    }
+}
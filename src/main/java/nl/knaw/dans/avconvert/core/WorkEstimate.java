@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * The work of converting a bag, estimated from the dct:extent of the files in files.xml and the mapping, without reading the AV files. Used to
+ * schedule the largest bags first and to limit the bytes in flight of a batch.
+ *
+ * @param bytesToCopy the AV and Springfield files, and with {@link CopyStrategy#COPY} the payload of the later revisions
+ * @param bytesToHash the AV and Springfield files, which are hashed while they are copied
+ */
+public record WorkEstimate(long bytesToCopy, long bytesToHash) {
+
+    public static final WorkEstimate NONE = new WorkEstimate(0, 0);
+
+    public static WorkEstimate of(FilesXml filesXml, MappingIndex mapping, String bagParent, CopyStrategy copyStrategy) {
+        var payloadBytes = 0L;
+        var avBytes = 0L;
+        var mappedFileIds = mapping.getByBagParent(bagParent).stream().map(MappingIndex.Entry::fileId).collect(toSet());
+        for (var file : filesXml.getFiles()) {
+            var extent = file.extentInBytes().orElse(0);
+            payloadBytes += extent;
+            if (file.source() != null && mappedFileIds.contains(file.identifier()))
+                avBytes += extent;
+        }
+        var springfieldBytes = 0L;
+        var revision2FilesXml = filesXml.withoutNoneNone();
+        for (var file : revision2FilesXml.getFiles()) {
+            // a rendition is about the size of its original
+            if (BagVersion3.getSpringfieldFile(file, mapping).isPresent())
+                springfieldBytes += file.extentInBytes().orElse(0);
+        }
+        var bytesToCopy = avBytes + springfieldBytes;
+        if (copyStrategy == CopyStrategy.COPY) {
+            var numberOfCopiedRevisions = BagVersion3.hasSpringfieldFiles(revision2FilesXml, mapping) ? 2 : 1;
+            bytesToCopy += numberOfCopiedRevisions * payloadBytes;
+        }
+        return new WorkEstimate(bytesToCopy, avBytes + springfieldBytes);
+    }
+
+    public long total() {
+        return bytesToCopy + bytesToHash;
+    }
+}
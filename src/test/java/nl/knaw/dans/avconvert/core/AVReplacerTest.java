@@ -55,7 +55,7 @@ public class AVReplacerTest extends AbstractTestWithTestDir {
             file1,marbles.mp4,
             file2,,swirls.mp4,causes logging,
             file9,,causes logging
-            fileA,%s/bag/data/file""".formatted(bagDir.getParent())
+            fileA,bagParent/bag/data/file"""
         );
         Files.writeString(filesXmlPath, """
             <files
@@ -81,17 +81,17 @@ public class AVReplacerTest extends AbstractTestWithTestDir {
             </files>
             """
         );
-        var filesXml = Converter.readXmlFile(bagDir.resolve("metadata/files.xml"));
+        var filesXml = FilesXml.read(bagDir.resolve("metadata/files.xml"));
 
-        var logger = captureLog(Level.INFO, AVReplacer.class.getName());
+        var logger = captureLog(Level.INFO, AVReplacer.class.getPackageName());
         captureStdout(); // ignore the logging on stdout
 
+        var mapping = MappingIndex.read(csvFile, Path.of("src/test/resources/avDir"), Path.of("src/test/resources/springfield"));
         assertThatThrownBy(() -> new AVReplacer(
             bagDir,
-            csvFile,
-            Path.of("src/test/resources/avDir"),
+            mapping,
             filesXml,
-            bagDir.getParent()
+            bagDir
         ).replaceAVFiles())
             .isInstanceOf(IllegalStateException.class)
             .hasMessage("Mapping and replaced files do not match");
@@ -101,15 +101,11 @@ public class AVReplacerTest extends AbstractTestWithTestDir {
         assertThat(messages.get(1)).isEqualTo("No AV path found for: CSVRecord [comment='null', recordNumber=3, values=[file9, , causes logging]]");
         assertThat(messages.get(4)).isEqualTo("Elements in fileIdsInMapping but not in replacedFileIds: bagParent [fileA]");
         assertThat(messages.get(5)).isEqualTo("Elements in replacedFileIds but not in fileIdsInMapping: bagParent [file2, file1]");
-        assertThat(messages.get(2)).isEqualTo("""
-            No <dct:identifier> found in: <?xml version="1.0" encoding="UTF-8"?><file filepath="data/file3.mp4" xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/">
-                <dct:source xmlns:dct="http://purl.org/dc/terms/">generates logging</dct:source>
-              </file>""");
-        assertThat(messages.get(3)).isEqualTo("""
-            No filepath attribute found in: <?xml version="1.0" encoding="UTF-8"?><file xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/">
-                <dct:identifier xmlns:dct="http://purl.org/dc/terms/">data/file4</dct:identifier>
-                <dct:source xmlns:dct="http://purl.org/dc/terms/">generates logging</dct:source>
-              </file>"""
+        assertThat(messages.get(2)).isEqualTo(
+            "No <dct:identifier> found in: FileEntry[filepath=data/file3.mp4, identifier=null, source=generates logging, accessibleToRights=null, visibleToRights=null, extent=null]"
+        );
+        assertThat(messages.get(3)).isEqualTo(
+            "No filepath attribute found in: FileEntry[filepath=null, identifier=data/file4, source=generates logging, accessibleToRights=null, visibleToRights=null, extent=null]"
         );
         assertThat(messages).hasSize(6);
     }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.writeString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BagInventoryTest extends AbstractTestWithTestDir {
+
+    private final Path bagDir = testDir.resolve("bag");
+
+    @Test
+    public void should_list_directories_and_files_with_their_sizes() throws Exception {
+        createDirectories(bagDir.resolve("data/empty"));
+        writeString(bagDir.resolve("bagit.txt"), "BagIt-Version: 1.0\n");
+        createFile(bagDir.resolve("data/placeholder.mp4"));
+
+        var inventory = BagInventory.read(bagDir);
+
+        assertThat(inventory.getDirectories()).containsExactly(Path.of(""), Path.of("data"), Path.of("data/empty"));
+        assertThat(inventory.getFiles()).containsOnlyKeys(Path.of("bagit.txt"), Path.of("data/placeholder.mp4"));
+        assertThat(inventory.get(Path.of("data/placeholder.mp4")).size()).isZero();
+        assertThat(inventory.getTotalSize()).isEqualTo(19);
+        assertThatThrownBy(() -> inventory.get(Path.of("data/missing.mp4"))).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void should_update_only_the_changed_files() throws Exception {
+        createDirectories(bagDir.resolve("data"));
+        createFile(bagDir.resolve("data/placeholder.mp4"));
+        createFile(bagDir.resolve("data/none-none.mp4"));
+        var inventory = BagInventory.read(bagDir);
+        var copyDir = testDir.resolve("copy");
+        createDirectories(copyDir.resolve("data/sub"));
+        writeString(copyDir.resolve("data/placeholder.mp4"), "content");
+        writeString(copyDir.resolve("data/sub/added.mp4"), "added");
+
+        var updated = inventory
+            .withUpdated(copyDir, List.of(Path.of("data/placeholder.mp4"), Path.of("data/sub/added.mp4")))
+            .without(List.of(Path.of("data/none-none.mp4")));
+
+        assertThat(updated.getFiles()).containsOnlyKeys(Path.of("data/placeholder.mp4"), Path.of("data/sub/added.mp4"));
+        assertThat(updated.get(Path.of("data/placeholder.mp4")).size()).isEqualTo(7);
+        assertThat(updated.getDirectories()).contains(Path.of("data/sub"));
+        assertThat(inventory.getFiles()).hasSize(2);
+        assertThat(inventory.get(Path.of("data/placeholder.mp4")).size()).isZero();
+    }
+}
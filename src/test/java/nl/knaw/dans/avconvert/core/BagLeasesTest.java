@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BagLeasesTest extends AbstractTestWithTestDir {
+
+    private static final long TIMEOUT = 60_000;
+
+    private final Path bag1 = Path.of("parent1/bag1");
+    private final Path bag2 = Path.of("parent2/bag2");
+
+    @Test
+    public void should_lease_a_bag_to_one_node() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            assertThat(node2.tryAcquire(bag1)).isFalse();
+            assertThat(node1.tryAcquire(bag1)).isFalse();
+            assertThat(node2.tryAcquire(bag2)).isTrue();
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node1");
+        }
+    }
+
+    @Test
+    public void should_take_over_an_expired_lease() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            // node1 crashed without renewing the lease
+            Files.setLastModifiedTime(testDir.resolve("leases/bag1"), FileTime.fromMillis(System.currentTimeMillis() - TIMEOUT - 1000));
+
+            assertThat(node2.tryAcquire(bag1)).isTrue();
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node2");
+            assertThat(testDir.resolve("leases").toFile().list()).containsExactly("bag1");
+        }
+    }
+
+    @Test
+    public void should_leave_an_expired_lease_to_the_node_reclaiming_it() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            Files.setLastModifiedTime(testDir.resolve("leases/bag1"), FileTime.fromMillis(System.currentTimeMillis() - TIMEOUT - 1000));
+            // a third node is reclaiming it
+            var marker = Files.createFile(testDir.resolve("leases/bag1.reclaim"));
+
+            assertThat(node2.tryAcquire(bag1)).isFalse();
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node1");
+
+            // the third node crashed while reclaiming
+            Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis() - TIMEOUT - 1000));
+            assertThat(node2.tryAcquire(bag1)).isFalse();
+            assertThat(node2.tryAcquire(bag1)).isTrue();
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node2");
+            assertThat(testDir.resolve("leases").toFile().list()).containsExactly("bag1");
+        }
+    }
+
+    @Test
+    public void should_leave_the_lease_of_the_node_that_took_over() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            // node1 stalled without renewing the lease
+            Files.setLastModifiedTime(testDir.resolve("leases/bag1"), FileTime.fromMillis(System.currentTimeMillis() - TIMEOUT - 1000));
+            assertThat(node2.tryAcquire(bag1)).isTrue();
+
+            assertThatThrownBy(() -> node1.checkHeld(bag1))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Lost the lease");
+            assertThat(node1.complete(BagResult.success(bag1, 42))).isFalse();
+
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node2");
+            assertThat(node1.isDone(bag1)).isFalse();
+            node2.checkHeld(bag1);
+        }
+    }
+
+    @Test
+    public void should_interrupt_the_conversion_of_a_bag_whose_lease_was_lost() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", 400)) {
+            var interrupted = new CompletableFuture<Boolean>();
+            var worker = new Thread(() -> {
+                try {
+                    node1.tryAcquire(bag1);
+                    // taken over by another node
+                    Files.writeString(testDir.resolve("leases/bag1"), "node2");
+                    Thread.sleep(10_000);
+                    interrupted.complete(false);
+                }
+                catch (InterruptedException e) {
+                    interrupted.complete(true);
+                }
+                catch (IOException e) {
+                    interrupted.completeExceptionally(e);
+                }
+            });
+            worker.start();
+
+            assertThat(interrupted.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(Files.readString(testDir.resolve("leases/bag1"))).isEqualTo("node2");
+        }
+    }
+
+    @Test
+    public void should_not_lease_a_completed_bag() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            node1.complete(BagResult.success(bag1, 42));
+
+            assertThat(testDir.resolve("leases/bag1")).doesNotExist();
+            assertThat(node2.isDone(bag1)).isTrue();
+            assertThat(node2.tryAcquire(bag1)).isFalse();
+        }
+    }
+
+    @Test
+    public void should_lease_a_failed_bag_again_in_a_later_run() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            assertThat(node1.complete(BagResult.failure(bag1, new IllegalStateException("disk full"), 7))).isTrue();
+
+            // not again in the same run
+            assertThat(node1.isDone(bag1)).isTrue();
+            assertThat(node2.tryAcquire(bag1)).isFalse();
+        }
+        // as if written by an earlier run
+        Files.setLastModifiedTime(testDir.resolve("failures/bag1.csv"), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT)) {
+            assertThat(node1.isDone(bag1)).isFalse();
+            assertThat(node1.tryAcquire(bag1)).isTrue();
+            assertThat(node1.complete(BagResult.success(bag1, 42))).isTrue();
+
+            assertThat(testDir.resolve("failures/bag1.csv")).doesNotExist();
+            assertThat(node1.readResults(List.of(bag1))).containsExactly(new BagResult(bag1, true, "", 42));
+        }
+    }
+
+    @Test
+    public void should_merge_the_results_of_all_nodes() throws Exception {
+        try (var node1 = new BagLeases(testDir, "node1", TIMEOUT); var node2 = new BagLeases(testDir, "node2", TIMEOUT)) {
+            var bag3 = Path.of("parent3/bag3");
+            node1.tryAcquire(bag1);
+            node2.tryAcquire(bag2);
+            node1.complete(BagResult.success(bag1, 42));
+            node2.complete(BagResult.failure(bag2, new IllegalStateException("broken, badly"), 7));
+
+            assertThat(node1.readResults(List.of(bag1, bag2, bag3))).containsExactly(
+                new BagResult(bag1, true, "", 42),
+                new BagResult(bag2, false, "broken, badly", 7)
+            );
+        }
+    }
+}
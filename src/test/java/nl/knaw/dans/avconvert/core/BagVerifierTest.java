@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BagVerifierTest extends AbstractTestWithTestDir {
+
+    private final Path bagDir = testDir.resolve("bag");
+
+    @BeforeEach
+    public void createBag() throws Exception {
+        createDirectories(bagDir.resolve("data"));
+        writeString(bagDir.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        writeString(bagDir.resolve("bag-info.txt"), "Bagging-Date: 2024-01-01\n");
+        writeString(bagDir.resolve("data/file1.txt"), "some content");
+        writeString(bagDir.resolve("data/file2.txt"), "some content");
+        writeString(bagDir.resolve("manifest-sha1.txt"), """
+            94e66df8cd09d410c62d9e0dc59d3a884e458e05  data/file1.txt
+            94e66df8cd09d410c62d9e0dc59d3a884e458e05  data/file2.txt
+            """);
+        writeString(bagDir.resolve("tagmanifest-sha1.txt"), "");
+        captureStdout(); // ignore the logging on stdout
+        RevisionPlan.read(bagDir).write(bagDir, new ParallelHasher(2));
+    }
+
+    @Test
+    public void should_verify_valid_bag() throws Exception {
+        assertThat(new BagVerifier(new ParallelHasher(2)).verify(bagDir)).isGreaterThan(24);
+    }
+
+    @Test
+    public void should_fail_on_changed_payload_file() throws Exception {
+        writeString(bagDir.resolve("data/file2.txt"), "other content");
+
+        assertThatThrownBy(() -> new BagVerifier(new ParallelHasher(2)).verify(bagDir))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageStartingWith("sha1 checksum of ")
+            .hasMessageContaining("file2.txt")
+            .hasMessageEndingWith("expected 94e66df8cd09d410c62d9e0dc59d3a884e458e05");
+    }
+
+    @Test
+    public void should_fail_on_changed_tag_file() throws Exception {
+        writeString(bagDir.resolve("bag-info.txt"), "Bagging-Date: 2024-01-02\n");
+
+        assertThatThrownBy(() -> new BagVerifier(new ParallelHasher(2)).verify(bagDir))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("bag-info.txt");
+    }
+
+    @Test
+    public void should_fail_on_payload_file_not_in_manifest() throws Exception {
+        writeString(bagDir.resolve("data/extra.txt"), "extra");
+
+        assertThatThrownBy(() -> new BagVerifier(new ParallelHasher(2)).verify(bagDir))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("extra.txt is not in the sha1 payload manifest");
+    }
+}
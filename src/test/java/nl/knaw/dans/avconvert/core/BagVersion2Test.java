@@ -24,6 +24,7 @@ import java.util.Set;
 import static ch.qos.logback.core.util.FileUtil.createMissingParentDirectories;
 import static java.nio.file.Files.createDirectory;
 import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.readString;
 import static java.nio.file.Files.writeString;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -61,11 +62,19 @@ public class BagVersion2Test extends AbstractTestWithTestDir {
             </files>
             """
         );
-        var filesXml = Converter.readXmlFile(filesXmlPath);
+        var filesXml = FilesXml.read(filesXmlPath);
         assertThat(new BagVersion2(bagDir).removeNoneNone(filesXml))
             .containsExactlyInAnyOrderElementsOf(Set.of(
                 Path.of("data/file1.mp4"),
                 Path.of("data/file2.mp4")
             ));
+        assertThat(bagDir.resolve("data/file1.mp4")).doesNotExist();
+        assertThat(bagDir.resolve("data/file3.mp4")).exists();
+        assertThat(FilesXml.read(filesXmlPath).getFiles())
+            .extracting(FilesXml.FileEntry::filepath)
+            .containsExactly("data/file3.mp4");
+        assertThat(readString(filesXmlPath))
+            .contains("<dct:identifier>file3</dct:identifier>")
+            .doesNotContain("file1");
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.readString;
+import static java.nio.file.Files.writeString;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BagVersion3Test extends AbstractTestWithTestDir {
+
+    private final Path bagDir = testDir.resolve("bag");
+    private final Path springfieldDir = testDir.resolve("springfield");
+
+    @Test
+    public void testAddSpringfieldFiles() throws Exception {
+        var filesXmlPath = bagDir.resolve("metadata").resolve("files.xml");
+        createDirectories(bagDir.resolve("metadata"));
+        createDirectories(bagDir.resolve("data"));
+        createDirectories(springfieldDir);
+        writeString(bagDir.resolve("data/file1.mka"), "original");
+        writeString(bagDir.resolve("data/file2.mp4"), "original");
+        writeString(bagDir.resolve("manifest-sha1.txt"), "");
+        writeString(bagDir.resolve("bag-info.txt"), "Is-Version-Of: urn:uuid:revision2\n");
+        writeString(springfieldDir.resolve("file1.mp4"), "playable 1");
+        writeString(springfieldDir.resolve("file2.mp4"), "playable 2");
+        writeString(filesXmlPath, """
+            <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/"
+                    xmlns:dct="http://purl.org/dc/terms/">
+              <file filepath="data/file1.mka">
+                <dct:identifier>file1</dct:identifier>
+                <accessibleToRights>RESTRICTED_REQUEST</accessibleToRights>
+                <visibleToRights>ANONYMOUS</visibleToRights>
+              </file>
+              <file filepath="data/file2.mp4">
+                <dct:identifier>file2</dct:identifier>
+              </file>
+            </files>
+            """
+        );
+        var csv = testDir.resolve("mapping.csv");
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file1,dataset,bag-parent/bag/data/file1.mka,file1.mp4
+            file2,dataset,bag-parent/bag/data/file2.mp4,file2.mp4
+            """
+        );
+        var mapping = MappingIndex.read(csv, testDir.resolve("av"), springfieldDir);
+        var filesXml = FilesXml.read(filesXmlPath);
+
+        assertThat(BagVersion3.hasSpringfieldFiles(filesXml, mapping)).isTrue();
+        var bag3 = new BagVersion3(bagDir);
+        bag3.addVersionOf("revision1");
+        var copied = bag3.addSpringfieldFiles(filesXml, mapping);
+
+        assertThat(copied).containsOnlyKeys(Path.of("data/file1.mp4"), Path.of("data/file2.mp4"));
+        assertThat(readString(bagDir.resolve("data/file1.mka"))).isEqualTo("original");
+        assertThat(readString(bagDir.resolve("data/file1.mp4"))).isEqualTo("playable 1");
+        assertThat(readString(bagDir.resolve("data/file2.mp4"))).isEqualTo("playable 2");
+        assertThat(readString(bagDir.resolve("bag-info.txt")))
+            .isEqualTo("Is-Version-Of: urn:uuid:revision1" + System.lineSeparator());
+
+        var added = FilesXml.read(filesXmlPath).getByFilepath("data/file1.mp4");
+        assertThat(added).isPresent();
+        assertThat(added.get().rights()).isEqualTo(new FilesXml.Rights("RESTRICTED_REQUEST", "ANONYMOUS"));
+        assertThat(FilesXml.read(filesXmlPath).getFiles()).hasSize(3);
+        assertThat(readString(filesXmlPath)).contains("<dct:format>video/mp4</dct:format>");
+    }
+
+    @Test
+    public void testHasNoSpringfieldFiles() throws Exception {
+        createDirectories(bagDir.resolve("metadata"));
+        var filesXmlPath = bagDir.resolve("metadata").resolve("files.xml");
+        writeString(filesXmlPath, """
+            <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/"
+                    xmlns:dct="http://purl.org/dc/terms/">
+              <file filepath="data/file1.mka">
+                <dct:identifier>file1</dct:identifier>
+              </file>
+            </files>
+            """
+        );
+        var csv = testDir.resolve("mapping.csv");
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file1,dataset,bag-parent/bag/data/file1.mka,
+            """
+        );
+        var mapping = MappingIndex.read(csv, testDir.resolve("av"), springfieldDir);
+
+        assertThat(BagVersion3.hasSpringfieldFiles(FilesXml.read(filesXmlPath), mapping)).isFalse();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.SneakyThrows;
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.file.Files.createDirectories;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchConverterTest extends AbstractTestWithTestDir {
+
+    private final Path sources = Path.of("src/test/resources/integration/");
+
+    @Test
+    public void should_find_grandchildren() throws Exception {
+        assertThat(BatchConverter.findBags(sources.resolve("input-bags")))
+            .hasSize(5)
+            .allMatch(bag -> Files.exists(bag.resolve("bagit.txt")));
+    }
+
+    @Test
+    public void should_continue_after_failing_bag() throws Exception {
+        var inputBagsDir = testDir.resolve("input-bags");
+        createDirectories(inputBagsDir.resolve("parent1/bag1"));
+        createDirectories(inputBagsDir.resolve("parent2/bag2"));
+        var outputDir = testDir.resolve("output");
+        captureStdout(); // ignore the logging on stdout
+
+        var mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
+        var results = new BatchConverter(
+            new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2)),
+            outputDir,
+            2
+        ).convertAll(inputBagsDir);
+
+        assertThat(results).extracting(BagResult::inputBag).containsExactly(
+            inputBagsDir.resolve("parent1/bag1"),
+            inputBagsDir.resolve("parent2/bag2")
+        );
+        assertThat(results).noneMatch(BagResult::success);
+
+        var summary = outputDir.resolve("summary.csv");
+        BatchConverter.writeSummary(results, summary);
+        List<String> lines = Files.readAllLines(summary);
+        assertThat(lines).hasSize(3);
+        assertThat(lines.get(0)).isEqualTo("input_bag,status,duration_ms,message");
+        assertThat(lines.get(1)).startsWith(inputBagsDir.resolve("parent1/bag1") + ",FAILED,");
+    }
+
+    @Test
+    public void dry_run_should_not_write_output() throws Exception {
+        var outputDir = testDir.resolve("output");
+        captureStdout(); // ignore the logging on stdout
+
+        var mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
+        var results = new BatchConverter(
+            new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2)),
+            outputDir,
+            2
+        ).checkAll(sources.resolve("input-bags"));
+
+        assertThat(results).hasSize(5).allMatch(BagResult::success);
+        assertThat(results).allMatch(result -> result.message().endsWith(" bytes required"));
+        assertThat(outputDir).doesNotExist();
+    }
+
+    @Test
+    public void should_verify_converted_bags() throws Exception {
+        var outputDir = testDir.resolve("output");
+        captureStdout(); // ignore the logging on stdout
+
+        var mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
+        var batchConverter = new BatchConverter(
+            new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2)),
+            outputDir,
+            2
+        );
+        var inputBagsDir = sources.resolve("input-bags");
+
+        assertThat(batchConverter.verifyAll(inputBagsDir)).hasSize(5).noneMatch(BagResult::success);
+        assertThat(batchConverter.convertAll(inputBagsDir, true)).hasSize(5).allMatch(BagResult::success);
+        assertThat(batchConverter.verifyAll(inputBagsDir)).hasSize(5).allMatch(BagResult::success);
+    }
+
+    @Test
+    public void should_divide_the_bags_between_nodes() throws Exception {
+        var outputDir = testDir.resolve("output");
+        var coordinationDir = testDir.resolve("coordination");
+        captureStdout(); // ignore the logging on stdout
+
+        var mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
+        var inputBagsDir = sources.resolve("input-bags");
+        try (var leases1 = new BagLeases(coordinationDir, "node1", 2_000); var leases2 = new BagLeases(coordinationDir, "node2", 2_000)) {
+            var node1 = new BatchConverter(new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2)), outputDir, 1, Long.MAX_VALUE, leases1);
+            var node2 = new BatchConverter(new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2)), outputDir, 1, Long.MAX_VALUE, leases2);
+            var results1 = CompletableFuture.supplyAsync(() -> convertAll(node1, inputBagsDir));
+            var results2 = CompletableFuture.supplyAsync(() -> convertAll(node2, inputBagsDir));
+
+            assertThat(results1.get()).hasSize(5).allMatch(BagResult::success);
+            assertThat(results2.get()).isEqualTo(results1.get());
+        }
+        assertThat(coordinationDir.resolve("leases")).isEmptyDirectory();
+        assertThat(coordinationDir.resolve("results")).isDirectoryContaining("glob:**.csv");
+    }
+
+    @SneakyThrows
+    private static List<BagResult> convertAll(BatchConverter batchConverter, Path inputBagsDir) {
+        return batchConverter.convertAll(inputBagsDir);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.MD5;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChecksumCacheTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_find_checksums_of_unchanged_file_in_a_later_run() throws Exception {
+        createDirectories(testDir);
+        var file = testDir.resolve("file.mp4");
+        writeString(file, "some content");
+        captureStdout(); // ignore the logging on stdout
+        new ChecksumCache(testDir.resolve("cache/checksums.txt"))
+            .put(file, Files.readAttributes(file, BasicFileAttributes.class), Map.of(SHA1, "abc", MD5, "def"));
+
+        var cache = new ChecksumCache(testDir.resolve("cache/checksums.txt"));
+
+        assertThat(cache.get(file, List.of(SHA1))).isEqualTo(Map.of(SHA1, "abc"));
+        assertThat(cache.get(file, List.of(SHA1, MD5))).isEqualTo(Map.of(SHA1, "abc", MD5, "def"));
+        assertThat(cache.get(testDir.resolve("other.mp4"), List.of(SHA1))).isNull();
+    }
+
+    @Test
+    public void should_not_find_checksums_of_changed_file_or_missing_algorithm() throws Exception {
+        createDirectories(testDir);
+        var file = testDir.resolve("file.mp4");
+        writeString(file, "some content");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L));
+        var cache = new ChecksumCache(testDir.resolve("checksums.txt"));
+        cache.put(file, Files.readAttributes(file, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+
+        assertThat(cache.get(file, List.of(SHA1, MD5))).isNull();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_001_000L));
+        assertThat(cache.get(file, List.of(SHA1))).isNull();
+    }
+
+    @Test
+    public void should_not_persist_checksums_of_files_written_by_this_run() throws Exception {
+        createDirectories(testDir);
+        var file = testDir.resolve("copy.mp4");
+        writeString(file, "some content");
+        captureStdout(); // ignore the logging on stdout
+        var cache = new ChecksumCache(testDir.resolve("checksums.txt"));
+        cache.remember(file, Files.readAttributes(file, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+
+        assertThat(cache.get(file, List.of(SHA1))).isEqualTo(Map.of(SHA1, "abc"));
+        assertThat(new ChecksumCache(testDir.resolve("checksums.txt")).get(file, List.of(SHA1))).isNull();
+    }
+
+    @Test
+    public void should_only_cache_files_under_the_roots() throws Exception {
+        var source = testDir.resolve("av-dir/file.mp4");
+        var output = testDir.resolve("output/file.mp4");
+        createDirectories(source.getParent());
+        createDirectories(output.getParent());
+        writeString(source, "some content");
+        writeString(output, "some content");
+        var cacheFile = testDir.resolve("checksums.txt");
+        captureStdout(); // ignore the logging on stdout
+        var unrestricted = new ChecksumCache(cacheFile);
+        // as written before the cache was restricted to the roots
+        unrestricted.put(output, Files.readAttributes(output, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+
+        var cache = new ChecksumCache(cacheFile, List.of(testDir.resolve("av-dir")));
+        cache.put(source, Files.readAttributes(source, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+        cache.put(output, Files.readAttributes(output, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+
+        assertThat(cache.get(source, List.of(SHA1))).isEqualTo(Map.of(SHA1, "abc"));
+        assertThat(cache.get(output, List.of(SHA1))).isNull();
+        assertThat(Files.readAllLines(cacheFile)).hasSize(2);
+    }
+
+    @Test
+    public void should_ignore_incomplete_last_line() throws Exception {
+        createDirectories(testDir);
+        var file = testDir.resolve("file.mp4");
+        writeString(file, "some content");
+        var cacheFile = testDir.resolve("checksums.txt");
+        captureStdout(); // ignore the logging on stdout
+        new ChecksumCache(cacheFile).put(file, Files.readAttributes(file, BasicFileAttributes.class), Map.of(SHA1, "abc"));
+        writeString(cacheFile, "12 1000 md5 de", APPEND);
+
+        var cache = new ChecksumCache(cacheFile);
+
+        assertThat(cache.get(file, List.of(SHA1))).isEqualTo(Map.of(SHA1, "abc"));
+        assertThat(cache.get(file, List.of(MD5))).isNull();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.MD5;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentStoreTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_link_targets_with_the_same_source_to_one_stored_copy() throws Exception {
+        createDirectories(testDir.resolve("bag1"));
+        createDirectories(testDir.resolve("bag2"));
+        var source = testDir.resolve("source.mp4");
+        writeString(source, "some content");
+        var target1 = testDir.resolve("bag1/file.mp4");
+        var target2 = testDir.resolve("bag2/file.mp4");
+        writeString(target1, ""); // a placeholder
+        captureStdout(); // ignore the logging on stdout
+
+        var store = new ContentStore(testDir.resolve("store"), new CopyEngine());
+        var checksums1 = store.copyAll(Map.of(target1, source), List.of(SHA1));
+        var checksums2 = store.copyAll(Map.of(target2, source), List.of(SHA1));
+
+        assertThat(checksums1).isEqualTo(Map.of(target1, Map.of(SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05")));
+        assertThat(checksums2).isEqualTo(Map.of(target2, Map.of(SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05")));
+        assertThat(target1).hasContent("some content");
+        assertThat(Files.isSameFile(target1, target2)).isTrue();
+        assertThat(Files.isSameFile(target1, source)).isFalse();
+        assertThat(testDir.resolve("store/tmp")).isEmptyDirectory();
+    }
+
+    @Test
+    public void should_reuse_the_digests_of_a_previous_run() throws Exception {
+        createDirectories(testDir.resolve("bag"));
+        var source = testDir.resolve("source.mp4");
+        var target = testDir.resolve("bag/file.mp4");
+        writeString(source, "some content");
+        var lastModified = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(source, lastModified);
+        captureStdout(); // ignore the logging on stdout
+        new ContentStore(testDir.resolve("store"), new CopyEngine()).copyAll(Map.of(target, source), List.of(SHA1));
+
+        // same size and last modified time, so the source is not read again
+        writeString(source, "SOME CONTENT");
+        Files.setLastModifiedTime(source, lastModified);
+        var checksums = new ContentStore(testDir.resolve("store"), new CopyEngine()).copyAll(Map.of(target, source), List.of(SHA1));
+
+        assertThat(checksums.get(target)).isEqualTo(Map.of(SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05"));
+        assertThat(target).hasContent("some content");
+    }
+
+    @Test
+    public void should_copy_a_changed_source_or_missing_algorithm_again() throws Exception {
+        createDirectories(testDir.resolve("bag"));
+        var source = testDir.resolve("source.mp4");
+        var target = testDir.resolve("bag/file.mp4");
+        writeString(source, "some content");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000_000_000L));
+        captureStdout(); // ignore the logging on stdout
+        var store = new ContentStore(testDir.resolve("store"), new CopyEngine());
+        store.copyAll(Map.of(target, source), List.of(SHA1));
+
+        var withMd5 = store.copyAll(Map.of(target, source), List.of(SHA1, MD5));
+        writeString(source, "SOME CONTENT");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000_001_000L));
+        var changed = new ContentStore(testDir.resolve("store"), new CopyEngine()).copyAll(Map.of(target, source), List.of(SHA1));
+
+        assertThat(withMd5.get(target)).isEqualTo(Map.of(
+            SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05",
+            MD5, "9893532233caff98cd083a116b013c0b"
+        ));
+        assertThat(changed.get(target)).isEqualTo(FileHasher.hash(source, List.of(SHA1)));
+        assertThat(target).hasContent("SOME CONTENT");
+    }
+}
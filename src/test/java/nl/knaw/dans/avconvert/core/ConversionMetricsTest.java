@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class ConversionMetricsTest extends AbstractTestWithTestDir {
+
+    private final Path bag = Path.of("parent/bag");
+
+    @Test
+    public void should_record_stages_per_bag_and_aggregated() throws Exception {
+        var metrics = new ConversionMetrics();
+        assertThat(metrics.time(bag, "copyRevision", () -> "copied", result -> 100L)).isEqualTo("copied");
+        metrics.run(bag, "removePayloads", () -> {});
+        metrics.time(Path.of("parent/other"), "copyRevision", () -> "copied", result -> 50L);
+
+        assertThat(metrics.getMeasurements())
+            .extracting(ConversionMetrics.StageMeasurement::stage, ConversionMetrics.StageMeasurement::bytes)
+            .containsExactly(
+                tuple("copyRevision", 100L),
+                tuple("removePayloads", 0L),
+                tuple("copyRevision", 50L)
+            );
+        assertThat(metrics.getRegistry().timer("stage.copyRevision").getCount()).isEqualTo(2);
+        assertThat(metrics.getRegistry().meter("stage.copyRevision.bytes").getCount()).isEqualTo(150);
+
+        metrics.writeReport(testDir.resolve("metrics"));
+        assertThat(Files.readAllLines(testDir.resolve("metrics/bags.csv")))
+            .hasSize(4)
+            .first().isEqualTo("input_bag,stage,duration_ms,bytes");
+        assertThat(testDir.resolve("metrics/stage.copyRevision.csv")).exists();
+        assertThat(testDir.resolve("metrics/stage.copyRevision.bytes.csv")).exists();
+    }
+
+    @Test
+    public void should_time_failing_stage() {
+        var metrics = new ConversionMetrics();
+        assertThatThrownBy(() -> metrics.run(bag, "removeNoneNone", () -> {
+            throw new IllegalStateException("failed");
+        })).hasMessage("failed");
+        assertThat(metrics.getRegistry().timer("stage.removeNoneNone").getCount()).isEqualTo(1);
+        assertThat(metrics.getMeasurements()).isEmpty();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.MD5;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CopyEngineTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_calculate_checksums_while_copying() throws Exception {
+        createDirectories(testDir);
+        var source = testDir.resolve("source.mp4");
+        var target = testDir.resolve("target.mp4");
+        writeString(source, "some content");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(1_000_000_000_000L));
+
+        var checksums = new CopyEngine().copy(source, target, List.of(SHA1, MD5));
+
+        assertThat(checksums).isEqualTo(Map.of(
+            SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05",
+            MD5, "9893532233caff98cd083a116b013c0b"
+        ));
+        assertThat(Files.readString(target)).isEqualTo("some content");
+        assertThat(Files.getLastModifiedTime(target)).isEqualTo(Files.getLastModifiedTime(source));
+        assertThat(FileHasher.hash(target, List.of(SHA1, MD5))).isEqualTo(checksums);
+    }
+
+    @Test
+    public void should_copy_in_chunks_extended_to_final_size() throws Exception {
+        createDirectories(testDir);
+        var source = testDir.resolve("source.mp4");
+        writeString(source, "some content that is longer than the buffer");
+        var engine = new CopyEngine(5, true, FsyncMode.PER_FILE, 1);
+
+        assertThat(engine.copy(source, testDir.resolve("transferred.mp4"))).isEqualTo(Files.size(source));
+        var checksums = engine.copy(source, testDir.resolve("hashed.mp4"), List.of(SHA1));
+
+        assertThat(testDir.resolve("transferred.mp4")).hasSameTextualContentAs(source);
+        assertThat(testDir.resolve("hashed.mp4")).hasSameTextualContentAs(source);
+        assertThat(checksums).isEqualTo(FileHasher.hash(source, List.of(SHA1)));
+    }
+
+    @Test
+    public void should_copy_empty_file() throws Exception {
+        createDirectories(testDir);
+        var source = Files.createFile(testDir.resolve("source.mp4"));
+        var engine = new CopyEngine(5, true, FsyncMode.BATCHED, 1);
+
+        assertThat(engine.copy(source, testDir.resolve("target.mp4"))).isZero();
+        assertThat(testDir.resolve("target.mp4")).isEmptyFile();
+        engine.syncBatch(testDir);
+    }
+
+    @Test
+    public void should_sync_a_revision_with_copied_and_linked_payload_files() throws Exception {
+        var input = createDirectories(testDir.resolve("input"));
+        var revision = createDirectories(testDir.resolve("revision/data/subdir"));
+        writeString(input.resolve("linked.mp4"), "linked content");
+        writeString(input.resolve("copied.mp4"), "copied content");
+        writeString(testDir.resolve("revision/bag-info.txt"), "Bagging-Date: 2024-01-01");
+        var engine = new CopyEngine(5, false, FsyncMode.BATCHED, 1);
+        Files.createLink(revision.resolve("linked.mp4"), input.resolve("linked.mp4"));
+        engine.copy(input.resolve("copied.mp4"), revision.resolve("copied.mp4"));
+
+        engine.syncBatch(testDir.resolve("revision"));
+
+        assertThat(revision.resolve("linked.mp4")).hasContent("linked content");
+        assertThat(revision.resolve("copied.mp4")).hasContent("copied content");
+    }
+
+    @Test
+    public void should_report_all_failures_after_copying_the_other_files() throws Exception {
+        createDirectories(testDir.resolve("source"));
+        createDirectories(testDir.resolve("target"));
+        captureStdout(); // ignore the logging on stdout
+        Map<Path, Path> sources = new HashMap<>();
+        for (var i = 0; i < 5; i++) {
+            var source = testDir.resolve("source/file" + i + ".mp4");
+            writeString(source, "content " + i);
+            sources.put(testDir.resolve("target/file" + i + ".mp4"), source);
+        }
+        sources.put(testDir.resolve("target/missing1.mp4"), testDir.resolve("source/missing1.mp4"));
+        sources.put(testDir.resolve("target/missing2.mp4"), testDir.resolve("source/missing2.mp4"));
+        var engine = new CopyEngine(CopyEngine.DEFAULT_BUFFER_SIZE, false, FsyncMode.NONE, 3);
+
+        assertThatThrownBy(() -> engine.copyAll(sources, List.of(SHA1)))
+            .isInstanceOf(IOException.class)
+            .hasMessageStartingWith("Could not copy 2 of 7 files: ")
+            .hasMessageContaining("missing1.mp4")
+            .hasMessageContaining("missing2.mp4")
+            .satisfies(e -> assertThat(e.getSuppressed()).hasSize(2));
+        for (var i = 0; i < 5; i++) {
+            assertThat(testDir.resolve("target/file" + i + ".mp4")).hasContent("content " + i);
+        }
+    }
+
+    @Test
+    public void should_replace_hard_link_without_writing_through_it() throws Exception {
+        createDirectories(testDir);
+        var source = testDir.resolve("source.mp4");
+        var original = testDir.resolve("original.mp4");
+        var link = testDir.resolve("link.mp4");
+        writeString(source, "new content");
+        writeString(original, "old content");
+        Files.createLink(link, original);
+
+        var checksums = new CopyEngine().copyAll(Map.of(link, source), List.of(SHA1));
+
+        assertThat(checksums).containsOnlyKeys(link);
+        assertThat(link).hasContent("new content");
+        assertThat(original).hasContent("old content");
+    }
+
+    @Test
+    public void should_copy_without_hashing_a_source_with_cached_checksums() throws Exception {
+        createDirectories(testDir);
+        var source = testDir.resolve("source.mp4");
+        var target = testDir.resolve("target.mp4");
+        writeString(source, "some content");
+        var cache = new ChecksumCache(testDir.resolve("checksums.txt"));
+        cache.put(source, Files.readAttributes(source, BasicFileAttributes.class), Map.of(SHA1, "cached"));
+        var engine = new CopyEngine(CopyEngine.DEFAULT_BUFFER_SIZE, false, FsyncMode.NONE, 1, cache);
+
+        assertThat(engine.copy(source, target, List.of(SHA1))).isEqualTo(Map.of(SHA1, "cached"));
+        assertThat(target).hasContent("some content");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DiskSpaceAdmissionTest extends AbstractTestWithTestDir {
+
+    private final Path bag1 = Path.of("parent1/bag1");
+    private final Path bag2 = Path.of("parent2/bag2");
+
+    @Test
+    public void should_fail_if_the_bag_does_not_fit_while_no_other_bag_is_in_progress() {
+        var admission = new DiskSpaceAdmission(testDir.resolve("out"), Long.MAX_VALUE / 2);
+
+        assertThatThrownBy(() -> admission.admit(bag1, 1))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageStartingWith("Not enough space in target/test/DiskSpaceAdmissionTest/out for parent1/bag1: 1 bytes required");
+    }
+
+    @Test
+    public void should_hold_back_a_bag_until_the_bag_in_progress_releases_its_space() throws Exception {
+        Files.createDirectories(testDir);
+        // leave 10 MB above the headroom, some slack for other processes writing to the same file system
+        var usableBytes = Files.getFileStore(testDir).getUsableSpace();
+        var admission = new DiskSpaceAdmission(testDir, usableBytes - 10_000_000);
+
+        admission.admit(bag1, 6_000_000);
+        var admitted = CompletableFuture.runAsync(() -> {
+            try {
+                admission.admit(bag2, 6_000_000);
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertThat(admitted).isNotDone();
+        admission.release(6_000_000);
+        admitted.get(5, TimeUnit.SECONDS);
+        assertThat(admitted).isCompleted();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.MD5;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileHasherTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_calculate_checksums() throws Exception {
+        createDirectories(testDir);
+        var file = testDir.resolve("file.mp4");
+        writeString(file, "some content");
+
+        assertThat(FileHasher.hash(file, List.of(SHA1, MD5))).isEqualTo(Map.of(
+            SHA1, "94e66df8cd09d410c62d9e0dc59d3a884e458e05",
+            MD5, "9893532233caff98cd083a116b013c0b"
+        ));
+    }
+
+    @Test
+    public void should_hash_empty_file() throws Exception {
+        createDirectories(testDir);
+        var file = Files.createFile(testDir.resolve("empty.mp4"));
+
+        assertThat(FileHasher.hash(file, List.of(SHA1))).isEqualTo(Map.of(
+            SHA1, "da39a3ee5e6b4b0d3255bfef95601890afd80709"
+        ));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import static ch.qos.logback.core.util.FileUtil.createMissingParentDirectories;
+import static java.nio.file.Files.readString;
+import static java.nio.file.Files.writeString;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilesXmlTest extends AbstractTestWithTestDir {
+
+    private final Path filesXmlPath = testDir.resolve("bag/metadata/files.xml");
+
+    @Test
+    public void should_index_files() throws Exception {
+        createMissingParentDirectories(filesXmlPath.toFile());
+        writeString(filesXmlPath, """
+            <?xml version='1.0' encoding='UTF-8'?>
+            <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/" xmlns:dct="http://purl.org/dc/terms/">
+              <file filepath="data/file1.mp4">
+                <dct:identifier>easy-file:1</dct:identifier>
+                <dct:title>not in the model</dct:title>
+                <accessibleToRights>ANONYMOUS</accessibleToRights>
+                <visibleToRights>ANONYMOUS</visibleToRights>
+              </file>
+              <file filepath="data/file2.mp4">
+                <dct:identifier>easy-file:2</dct:identifier>
+                <accessibleToRights>NONE</accessibleToRights>
+                <visibleToRights>NONE</visibleToRights>
+                <dct:source>http://datavault.dans.knaw.nl/file2</dct:source>
+                <dct:extent>2036.7MB</dct:extent>
+              </file>
+              <file filepath="data/file3.mp4">
+                <dct:identifier>easy-file:3</dct:identifier>
+              </file>
+            </files>
+            """
+        );
+
+        var filesXml = FilesXml.read(filesXmlPath);
+
+        assertThat(filesXml.getFiles()).extracting(FilesXml.FileEntry::filepath)
+            .containsExactly("data/file1.mp4", "data/file2.mp4", "data/file3.mp4");
+        assertThat(filesXml.getByIdentifier("easy-file:2")).hasValueSatisfying(file -> {
+            assertThat(file.filepath()).isEqualTo("data/file2.mp4");
+            assertThat(file.source()).isEqualTo("http://datavault.dans.knaw.nl/file2");
+            assertThat(file.extentInBytes()).hasValue(2_135_634_739L);
+        });
+        assertThat(filesXml.getByFilepath("data/file1.mp4")).hasValueSatisfying(file ->
+            assertThat(file.rights()).isEqualTo(new FilesXml.Rights("ANONYMOUS", "ANONYMOUS"))
+        );
+        assertThat(filesXml.getNoneNone()).extracting(FilesXml.FileEntry::identifier)
+            .containsExactly("easy-file:2", "easy-file:3");
+
+        var view = filesXml.withoutNoneNone();
+        assertThat(view.getFiles()).extracting(FilesXml.FileEntry::identifier).containsExactly("easy-file:1");
+        assertThat(view.getByIdentifier("easy-file:2")).isEmpty();
+        assertThat(filesXml.getFiles()).hasSize(3);
+    }
+
+    @Test
+    public void should_add_files_with_the_prefixes_of_the_document() throws Exception {
+        createMissingParentDirectories(filesXmlPath.toFile());
+        writeString(filesXmlPath, """
+            <?xml version='1.0' encoding='UTF-8'?>
+            <f:files xmlns:f="http://easy.dans.knaw.nl/schemas/bag/metadata/files/" xmlns:dcterms="http://purl.org/dc/terms/">
+              <f:file filepath="data/file1.mp4">
+                <dcterms:identifier>easy-file:1</dcterms:identifier>
+              </f:file>
+            </f:files>
+            """
+        );
+        var rights = new FilesXml.Rights("ANONYMOUS", "KNOWN");
+
+        FilesXml.rewrite(filesXmlPath, filesXmlPath, Set.of(), List.of(new FilesXml.AddedFile("data/file1.mp3", "audio/mpeg", rights)));
+
+        assertThat(readString(filesXmlPath))
+            .contains("<f:file filepath=\"data/file1.mp3\">")
+            .contains("<dcterms:format>audio/mpeg</dcterms:format>")
+            .contains("<f:visibleToRights>KNOWN</f:visibleToRights>");
+        assertThat(FilesXml.read(filesXmlPath).getByFilepath("data/file1.mp3")).hasValueSatisfying(file ->
+            assertThat(file.rights()).isEqualTo(rights)
+        );
+    }
+
+    @Test
+    public void should_declare_dcterms_on_an_added_file_if_the_document_does_not() throws Exception {
+        createMissingParentDirectories(filesXmlPath.toFile());
+        writeString(filesXmlPath, """
+            <?xml version='1.0' encoding='UTF-8'?>
+            <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/">
+              <file filepath="data/file1.mp4"/>
+            </files>
+            """
+        );
+
+        FilesXml.rewrite(filesXmlPath, filesXmlPath, Set.of(), List.of(new FilesXml.AddedFile("data/file1.mp3", "audio/mpeg", FilesXml.Rights.NONE_NONE)));
+
+        assertThat(readString(filesXmlPath))
+            .contains("<file xmlns:dct=\"http://purl.org/dc/terms/\" filepath=\"data/file1.mp3\">")
+            .contains("<dct:format>audio/mpeg</dct:format>");
+        assertThat(FilesXml.read(filesXmlPath).getByFilepath("data/file1.mp3")).isPresent();
+    }
+
+    @Test
+    public void should_parse_extents() {
+        assertThat(extent("0.0MB")).hasValue(0);
+        assertThat(extent("0.5KB")).hasValue(512);
+        assertThat(extent("1.5 GB")).hasValue(1_610_612_736L);
+        assertThat(extent("12B")).hasValue(12);
+        assertThat(extent("unknown")).isEmpty();
+        assertThat(extent(null)).isEmpty();
+    }
+
+    private static OptionalLong extent(String extent) {
+        return new FilesXml.FileEntry("data/file.mp4", null, null, null, null, extent).extentInBytes();
+    }
+}
@@ -40,12 +40,19 @@ public class IntegrationTest {
 
     private static final Path testDir = Path.of("target/test")
         .resolve(IntegrationTest.class.getSimpleName());
+    private static final Path sources = Paths.get("src/test/resources/integration/");
     private static ListAppender<ILoggingEvent> capturedLog;
+    private static MappingIndex mapping;
 
     @BeforeAll
     public static void setUpOnce() throws Exception {
         FileUtils.deleteDirectory(testDir.toFile());
         capturedLog = captureLog(Level.DEBUG, "nl.knaw.dans.avconvert");
+        mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
     }
 
     @AfterAll
@@ -55,8 +62,6 @@ public class IntegrationTest {
         Files.writeString(testDir.resolve("log.txt"), String.join("\n", lines));
     }
 
-    private static final Path sources = Paths.get("src/test/resources/integration/");
-
     private static Stream<Path> bagProvider() throws IOException {
         var bagParents = sources.resolve("input-bags");
         return Files.walk(bagParents, 3).filter(path ->
@@ -68,11 +73,8 @@ public class IntegrationTest {
     @MethodSource("bagProvider")
     public void testGrandchild(Path inputBag) throws IOException {
         captureStdout(); // ignore the logging on stdout
-        new Converter().convert(
+        new Converter(mapping, CopyStrategy.HARDLINK, new ParallelHasher(2)).convert(
             inputBag,
-            sources.resolve("mapping.csv"),
-            sources.resolve("av-dir"),
-            sources.resolve("springfield-dir"),
             testDir.resolve("converted-bags")
         );
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_read_what_was_recorded() throws Exception {
+        var journal = Journal.read(testDir, "bag");
+        assertThat(Journal.getFile(testDir, "bag")).doesNotExist();
+
+        var id = journal.getId("revision2");
+        assertThat(journal.getId("revision2")).isEqualTo(id);
+        journal.complete(Journal.Stage.REVISION1_COPIED);
+        journal.addChecksums(Map.of(
+            Path.of("data/file with spaces.mp4"), Map.of(StandardSupportedAlgorithms.SHA1, "abc")
+        ));
+
+        var reread = Journal.read(testDir, "bag");
+        assertThat(reread.getId("revision2")).isEqualTo(id);
+        assertThat(reread.isCompleted(Journal.Stage.REVISION1_COPIED)).isTrue();
+        assertThat(reread.isCompleted(Journal.Stage.AV_REPLACED)).isFalse();
+        assertThat(reread.getChecksums()).isEqualTo(Map.of(
+            Path.of("data/file with spaces.mp4"), Map.of(StandardSupportedAlgorithms.SHA1, "abc")
+        ));
+    }
+
+    @Test
+    public void should_ignore_incomplete_last_line() throws Exception {
+        captureStdout(); // ignore the logging on stdout
+        Journal.read(testDir, "bag").complete(Journal.Stage.REVISION1_COPIED);
+        Files.writeString(Journal.getFile(testDir, "bag"), "stage AV_REPL", APPEND);
+
+        var journal = Journal.read(testDir, "bag");
+        assertThat(journal.isCompleted(Journal.Stage.REVISION1_COPIED)).isTrue();
+        assertThat(journal.isCompleted(Journal.Stage.AV_REPLACED)).isFalse();
+    }
+
+    @Test
+    public void should_resume_interrupted_conversion() throws Exception {
+        captureStdout(); // ignore the logging on stdout
+        var sources = Path.of("src/test/resources/integration/");
+        var mapping = MappingIndex.read(
+            sources.resolve("mapping.csv"),
+            sources.resolve("av-dir"),
+            sources.resolve("springfield-dir")
+        );
+        var inputBag = BatchConverter.findBags(sources.resolve("input-bags")).get(0);
+        var outputDir = testDir.resolve("output");
+        var converter = new Converter(mapping, CopyStrategy.COPY, new ParallelHasher(2));
+        converter.convert(inputBag, outputDir);
+        var bagId = inputBag.getFileName().toString();
+        var revision2 = outputDir.resolve(Journal.read(outputDir, bagId).getId("revision2"));
+        var manifest = Files.readString(revision2.resolve("manifest-sha1.txt"));
+
+        // simulate an interruption while revision2 was written
+        var journalFile = Journal.getFile(outputDir, bagId);
+        var lines = Files.readAllLines(journalFile).stream()
+            .filter(line -> !line.startsWith("stage REVISION2") && !line.startsWith("stage REVISION3") && !line.equals("stage CONVERTED"))
+            .toList();
+        Files.write(journalFile, lines);
+        Files.delete(revision2.resolve("manifest-sha1.txt"));
+
+        converter.convert(inputBag, outputDir);
+        assertThat(revision2.resolve("manifest-sha1.txt")).hasContent(manifest);
+        assertThat(Journal.read(outputDir, bagId).isCompleted(Journal.Stage.CONVERTED)).isTrue();
+        try (var revisions = Files.list(outputDir)) {
+            assertThat(revisions.filter(path -> !path.getFileName().toString().startsWith("."))).hasSizeLessThanOrEqualTo(3);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LargestFirstQueueTest {
+
+    private final Path small = Path.of("parent1/small");
+    private final Path medium = Path.of("parent2/medium");
+    private final Path large = Path.of("parent3/large");
+
+    @Test
+    public void should_hand_out_largest_first() throws Exception {
+        var queue = new LargestFirstQueue(Map.of(
+            small, new WorkEstimate(10, 10),
+            medium, new WorkEstimate(20, 20),
+            large, new WorkEstimate(30, 30)
+        ), Long.MAX_VALUE);
+
+        assertThat(queue.take()).isEqualTo(large);
+        assertThat(queue.take()).isEqualTo(medium);
+        assertThat(queue.take()).isEqualTo(small);
+        assertThat(queue.take()).isNull();
+    }
+
+    @Test
+    public void should_not_start_smaller_bag_before_a_larger_one_that_does_not_fit() throws Exception {
+        var queue = new LargestFirstQueue(Map.of(
+            small, new WorkEstimate(10, 10),
+            medium, new WorkEstimate(20, 20),
+            large, new WorkEstimate(30, 30)
+        ), 40);
+
+        assertThat(queue.take()).isEqualTo(large);
+        var next = takeAsync(queue);
+        Thread.sleep(200);
+        assertThat(next).isNotDone();
+
+        queue.done(large);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo(medium);
+        assertThat(queue.take()).isEqualTo(small);
+    }
+
+    @Test
+    public void should_start_bag_larger_than_the_limit_before_smaller_bags_that_fit() throws Exception {
+        var huge1 = Path.of("parent4/huge1");
+        var huge2 = Path.of("parent5/huge2");
+        var smallBags = List.of(small, Path.of("parent6/small2"), Path.of("parent7/small3"));
+        Map<Path, WorkEstimate> estimates = new HashMap<>();
+        estimates.put(huge1, new WorkEstimate(100, 100));
+        estimates.put(huge2, new WorkEstimate(90, 90));
+        smallBags.forEach(bag -> estimates.put(bag, new WorkEstimate(10, 10)));
+        var queue = new LargestFirstQueue(estimates, 40);
+
+        assertThat(queue.take()).isEqualTo(huge1);
+        // huge2 waits for nothing else to be in flight, the small bags wait for huge2
+        var next = takeAsync(queue);
+        Thread.sleep(200);
+        assertThat(next).isNotDone();
+
+        queue.done(huge1);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo(huge2);
+        next = takeAsync(queue);
+        Thread.sleep(200);
+        assertThat(next).isNotDone();
+
+        queue.done(huge2);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isIn(smallBags);
+        assertThat(queue.take()).isIn(smallBags);
+        assertThat(queue.take()).isIn(smallBags);
+        assertThat(queue.take()).isNull();
+    }
+
+    @Test
+    public void should_start_bag_larger_than_the_limit_when_nothing_is_in_flight() throws Exception {
+        var queue = new LargestFirstQueue(Map.of(large, new WorkEstimate(100, 100)), 40);
+
+        assertThat(queue.take()).isEqualTo(large);
+        queue.done(large);
+        assertThat(queue.take()).isNull();
+    }
+
+    private static CompletableFuture<Path> takeAsync(LargestFirstQueue queue) {
+        return CompletableFuture.supplyAsync(() -> take(queue));
+    }
+
+    @SneakyThrows
+    private static Path take(LargestFirstQueue queue) {
+        return queue.take();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappingIndexTest extends AbstractTestWithTestDir {
+
+    private final Path avDir = Path.of("src/test/resources/integration/av-dir");
+    private final Path springfieldDir = Path.of("src/test/resources/integration/springfield-dir");
+
+    @Test
+    public void should_index_by_file_id_bag_parent_and_dataset_id() throws Exception {
+        captureStdout(); // ignore the logging on stdout
+        var mapping = MappingIndex.read(Path.of("src/test/resources/integration/mapping.csv"), avDir, springfieldDir);
+
+        assertThat(mapping.get("easy-file:7728890")).hasValueSatisfying(entry -> {
+            assertThat(entry.datasetId()).isEqualTo("easy-dataset:121282");
+            assertThat(entry.pathInAvDir()).isEqualTo(avDir.resolve("89e54b08-5f1f-452c-a551-0d35f75a3939/bag/data/NH173.mkv"));
+            assertThat(entry.pathInSpringfieldDir()).isEqualTo(springfieldDir.resolve("domain/dans/user/nini/video/12/rawvideo/2/NH173.mp4"));
+        });
+        assertThat(mapping.get("easy-file:7728888")).hasValueSatisfying(entry ->
+            assertThat(entry.pathInSpringfieldDir()).isNull()
+        );
+        assertThat(mapping.get("easy-file:8322137")).isEmpty();
+        assertThat(mapping.getByBagParent("89e54b08-5f1f-452c-a551-0d35f75a3939"))
+            .extracting(MappingIndex.Entry::fileId)
+            .containsExactlyInAnyOrder("easy-file:7728888", "easy-file:7728889", "easy-file:7728890");
+        assertThat(mapping.getByDatasetId("easy-dataset:155170")).hasSize(3);
+        assertThat(mapping.getByBagParent("no-such-parent")).isEmpty();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.MD5;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA256;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelHasherTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void should_return_same_checksums_as_sequential_hashing_ordered_by_path() throws Exception {
+        createDirectories(testDir);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            var file = testDir.resolve("file" + i + ".txt");
+            writeString(file, "content " + i);
+            files.add(file);
+        }
+        Collections.shuffle(files);
+
+        var checksums = new ParallelHasher(4).hash(files, List.of(SHA256, MD5));
+
+        assertThat(checksums.keySet()).isSortedAccordingTo(Path::compareTo).hasSize(50);
+        for (var file : files) {
+            assertThat(checksums.get(file)).isEqualTo(FileHasher.hash(file, List.of(SHA256, MD5)));
+        }
+    }
+}
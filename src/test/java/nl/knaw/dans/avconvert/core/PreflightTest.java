@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PreflightTest extends AbstractTestWithTestDir {
+
+    private final Path bagDir = testDir.resolve("input/bagParent/bag");
+    private final Path avDir = testDir.resolve("av");
+    private final Path springfieldDir = testDir.resolve("springfield");
+    private final Path outputDir = testDir.resolve("output");
+    private final Path csv = testDir.resolve("mapping.csv");
+
+    @BeforeEach
+    public void createBag() throws Exception {
+        captureStdout(); // ignore the logging on stdout
+        createDirectories(bagDir.resolve("data"));
+        createDirectories(bagDir.resolve("metadata"));
+        createDirectories(avDir.resolve("bagParent/bag/data"));
+        createDirectories(springfieldDir);
+        createFile(bagDir.resolve("data/file1.mka"));
+        writeString(avDir.resolve("bagParent/bag/data/file1.mka"), "0123456789");
+        writeString(bagDir.resolve("metadata/files.xml"), """
+            <files xmlns="http://easy.dans.knaw.nl/schemas/bag/metadata/files/"
+                    xmlns:dct="http://purl.org/dc/terms/">
+              <file filepath="data/file1.mka">
+                <dct:identifier>file1</dct:identifier>
+                <dct:source>just has to be present</dct:source>
+              </file>
+            </files>
+            """
+        );
+    }
+
+    @Test
+    public void should_estimate_required_bytes() throws Exception {
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file1,dataset,bagParent/bag/data/file1.mka,
+            """
+        );
+        var preflight = new Preflight(MappingIndex.read(csv, avDir, springfieldDir), CopyStrategy.HARDLINK);
+
+        assertThat(preflight.check(bagDir, FilesXml.read(bagDir.resolve("metadata/files.xml")), outputDir))
+            .isEqualTo(10);
+        assertThat(outputDir).doesNotExist();
+    }
+
+    @Test
+    public void should_not_count_revisions_written_before_an_interruption() throws Exception {
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file1,dataset,bagParent/bag/data/file1.mka,
+            """
+        );
+        var preflight = new Preflight(MappingIndex.read(csv, avDir, springfieldDir), CopyStrategy.COPY);
+        var filesXml = FilesXml.read(bagDir.resolve("metadata/files.xml"));
+        var bothRevisions = preflight.check(bagDir, filesXml, outputDir);
+
+        var journal = Journal.read(outputDir, "bag");
+        journal.complete(Journal.Stage.REVISION1_COPIED);
+        journal.complete(Journal.Stage.AV_REPLACED);
+
+        assertThat(preflight.check(bagDir, filesXml, outputDir)).isEqualTo(bothRevisions / 2);
+        journal.complete(Journal.Stage.REVISION1_WRITTEN);
+        journal.complete(Journal.Stage.REVISION2_WRITTEN);
+        assertThat(preflight.check(bagDir, filesXml, outputDir)).isZero();
+    }
+
+    @Test
+    public void should_reject_missing_springfield_file() throws Exception {
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file1,dataset,bagParent/bag/data/file1.mka,file1.mp4
+            """
+        );
+        var preflight = new Preflight(MappingIndex.read(csv, avDir, springfieldDir), CopyStrategy.HARDLINK);
+
+        assertThatThrownBy(() -> preflight.check(bagDir, FilesXml.read(bagDir.resolve("metadata/files.xml")), outputDir))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("File file1 not found: " + springfieldDir.resolve("file1.mp4"));
+        assertThat(outputDir).doesNotExist();
+    }
+
+    @Test
+    public void should_reject_mismatch_before_copying() throws Exception {
+        writeString(csv, """
+            easy_file_id,dataset_id,path_in_AV_dir,path_in_springfield_dir
+            file2,dataset,bagParent/bag/data/file2.mka,
+            """
+        );
+        var converter = new Converter(MappingIndex.read(csv, avDir, springfieldDir), CopyStrategy.COPY, new ParallelHasher(1));
+
+        assertThatThrownBy(() -> converter.convert(bagDir, outputDir))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("Mapping and replaced files do not match");
+        assertThat(outputDir).doesNotExist();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static ch.qos.logback.core.util.FileUtil.createMissingParentDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RevisionCopierTest extends AbstractTestWithTestDir {
+
+    private final Path sourceBag = testDir.resolve("source");
+    private final Path targetBag = testDir.resolve("target");
+
+    @Test
+    public void should_link_payload_and_copy_tag_files() throws Exception {
+        createBag();
+        captureStdout(); // ignore the logging on stdout
+
+        new RevisionCopier(CopyStrategy.HARDLINK).copy(sourceBag, targetBag);
+
+        assertThat(Files.isSameFile(sourceBag.resolve("data/sub/file1.mp4"), targetBag.resolve("data/sub/file1.mp4"))).isTrue();
+        assertThat(Files.isSameFile(sourceBag.resolve("bag-info.txt"), targetBag.resolve("bag-info.txt"))).isFalse();
+        assertThat(Files.isSameFile(sourceBag.resolve("metadata/files.xml"), targetBag.resolve("metadata/files.xml"))).isFalse();
+        assertThat(Files.readString(targetBag.resolve("data/sub/file1.mp4"))).isEqualTo("content");
+        assertThat(Files.readString(targetBag.resolve("bag-info.txt"))).isEqualTo("Bagging-Date: 2024-05-16\n");
+    }
+
+    @Test
+    public void should_copy_payload() throws Exception {
+        createBag();
+        captureStdout(); // ignore the logging on stdout
+
+        new RevisionCopier(CopyStrategy.COPY).copy(sourceBag, targetBag);
+
+        assertThat(Files.isSameFile(sourceBag.resolve("data/sub/file1.mp4"), targetBag.resolve("data/sub/file1.mp4"))).isFalse();
+        assertThat(Files.readString(targetBag.resolve("data/sub/file1.mp4"))).isEqualTo("content");
+    }
+
+    @Test
+    public void should_reflink_payload_or_fall_back_to_copy() throws Exception {
+        createBag();
+        writeString(sourceBag.resolve("data/file2.mp4"), "other content");
+        writeString(sourceBag.resolve("data/sub/-file3.mp4"), "more content");
+        captureStdout(); // ignore the logging on stdout
+
+        // whether the test directory supports reflinks or not, the result is the same
+        new RevisionCopier(CopyStrategy.REFLINK).copy(sourceBag, targetBag);
+
+        assertThat(Files.readString(targetBag.resolve("data/sub/file1.mp4"))).isEqualTo("content");
+        assertThat(Files.readString(targetBag.resolve("data/file2.mp4"))).isEqualTo("other content");
+        assertThat(Files.readString(targetBag.resolve("data/sub/-file3.mp4"))).isEqualTo("more content");
+        assertThat(Files.getLastModifiedTime(targetBag.resolve("data/file2.mp4")))
+            .isEqualTo(Files.getLastModifiedTime(sourceBag.resolve("data/file2.mp4")));
+    }
+
+    private void createBag() throws Exception {
+        var payloadFile = sourceBag.resolve("data/sub/file1.mp4");
+        var filesXml = sourceBag.resolve("metadata/files.xml");
+        createMissingParentDirectories(payloadFile.toFile());
+        createMissingParentDirectories(filesXml.toFile());
+        writeString(payloadFile, "content");
+        writeString(filesXml, "<files/>");
+        writeString(sourceBag.resolve("bag-info.txt"), "Bagging-Date: 2024-05-16\n");
+    }
+}
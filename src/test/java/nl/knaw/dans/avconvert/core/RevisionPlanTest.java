@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.avconvert.core;
+
+import nl.knaw.dans.avconvert.AbstractTestWithTestDir;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.writeString;
+import static nl.knaw.dans.avconvert.TestUtils.captureStdout;
+import static nl.knaw.dans.bagit.hash.StandardSupportedAlgorithms.SHA1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RevisionPlanTest extends AbstractTestWithTestDir {
+
+    private final Path revision1 = testDir.resolve("revision1");
+    private final Path revision2 = testDir.resolve("revision2");
+
+    @Test
+    public void should_derive_manifests_of_next_revision_without_reading_it() throws Exception {
+        createDirectories(revision1.resolve("data"));
+        createDirectories(revision1.resolve("metadata"));
+        writeString(revision1.resolve("data/a.txt"), "a");
+        writeString(revision1.resolve("data/b.txt"), "b");
+        writeString(revision1.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        writeString(revision1.resolve("bag-info.txt"), "Bagging-Date: 2024-05-16\n");
+        writeString(revision1.resolve("metadata/files.xml"), "<files/>");
+        writeString(revision1.resolve("manifest-sha1.txt"), """
+            86f7e437faa5a7fce15d1ddcb9eaeaea377667b8  data/a.txt
+            e9d71f5ee7c92d6dc9e92ffdad17b8bd49418f98  data/b.txt
+            """);
+        // the checksum of bagit.txt is not correct, it should be carried over without rehashing
+        writeString(revision1.resolve("tagmanifest-sha1.txt"), """
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  bagit.txt
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  bag-info.txt
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  metadata/files.xml
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  manifest-sha1.txt
+            """);
+        captureStdout(); // ignore the logging on stdout
+        var plan = RevisionPlan.read(revision1);
+
+        FileUtils.copyDirectory(revision1.toFile(), revision2.toFile());
+        Files.delete(revision2.resolve("data/b.txt"));
+        writeString(revision2.resolve("bag-info.txt"), "Bagging-Date: 2024-05-16\nIs-Version-Of: urn:uuid:revision1\n");
+        writeString(revision2.resolve("data/c.txt"), "c");
+        plan.withoutPayloads(List.of(Path.of("data/b.txt")))
+            .withPayloads(Map.of(Path.of("data/c.txt"), Map.of()))
+            .write(revision2, new ParallelHasher(2));
+
+        assertThat(Files.readAllLines(revision2.resolve("manifest-sha1.txt"))).containsExactlyInAnyOrder(
+            "86f7e437faa5a7fce15d1ddcb9eaeaea377667b8  data/a.txt",
+            "84a516841ba77a5b4648de2cd0dfcb30ea46dbb4  data/c.txt"
+        );
+        var sha1 = List.of(SHA1);
+        assertThat(Files.readAllLines(revision2.resolve("tagmanifest-sha1.txt"))).containsExactlyInAnyOrder(
+            "0a4d55a8d778e5022fab701977c5d840bbc486d0  bagit.txt",
+            FileHasher.hash(revision2.resolve("bag-info.txt"), sha1).get(SHA1) + "  bag-info.txt",
+            FileHasher.hash(revision2.resolve("metadata/files.xml"), sha1).get(SHA1) + "  metadata/files.xml",
+            FileHasher.hash(revision2.resolve("manifest-sha1.txt"), sha1).get(SHA1) + "  manifest-sha1.txt"
+        );
+        // the plan of the previous revision is not affected
+        assertThat(plan.getPayload()).containsOnlyKeys(Path.of("data/a.txt"), Path.of("data/b.txt"));
+    }
+
+    @Test
+    public void should_remove_payloads() throws Exception {
+        createDirectories(revision1.resolve("data"));
+        writeString(revision1.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        writeString(revision1.resolve("manifest-sha1.txt"), """
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  data/file1.mp4
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  data/file2.mp4
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  data/file3.mp4
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  data/file4.mp4
+            """);
+        captureStdout(); // ignore the logging on stdout
+
+        var plan = RevisionPlan.read(revision1).withoutPayloads(Set.of(
+            Path.of("data/file2.mp4"),
+            Path.of("data/./file3.mp4")
+        ));
+
+        assertThat(plan.getPayload()).containsOnlyKeys(Path.of("data/file1.mp4"), Path.of("data/file4.mp4"));
+    }
+
+    @Test
+    public void should_hash_tag_files_that_are_not_in_the_plan() throws Exception {
+        createDirectories(revision1.resolve("data"));
+        createDirectories(revision1.resolve("metadata"));
+        writeString(revision1.resolve("data/a.txt"), "a");
+        writeString(revision1.resolve("bagit.txt"), """
+            BagIt-Version: 1.0
+            Tag-File-Character-Encoding: UTF-8
+            """);
+        writeString(revision1.resolve("metadata/dataset.xml"), "<dataset/>");
+        writeString(revision1.resolve("metadata/old.xml"), "<old/>");
+        writeString(revision1.resolve("manifest-sha1.txt"), """
+            86f7e437faa5a7fce15d1ddcb9eaeaea377667b8  data/a.txt
+            """);
+        // the checksums of bagit.txt and dataset.xml are not correct, they should be carried over without rehashing
+        writeString(revision1.resolve("tagmanifest-sha1.txt"), """
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  bagit.txt
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  metadata/dataset.xml
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  metadata/old.xml
+            0a4d55a8d778e5022fab701977c5d840bbc486d0  manifest-sha1.txt
+            """);
+        captureStdout(); // ignore the logging on stdout
+        var plan = RevisionPlan.read(revision1);
+
+        FileUtils.copyDirectory(revision1.toFile(), revision2.toFile());
+        Files.delete(revision2.resolve("metadata/old.xml"));
+        writeString(revision2.resolve("metadata/new.xml"), "<new/>");
+        var written = plan.write(revision2, new ParallelHasher(2));
+
+        var sha1 = List.of(SHA1);
+        assertThat(Files.readAllLines(revision2.resolve("tagmanifest-sha1.txt"))).containsExactlyInAnyOrder(
+            "0a4d55a8d778e5022fab701977c5d840bbc486d0  bagit.txt",
+            "0a4d55a8d778e5022fab701977c5d840bbc486d0  metadata/dataset.xml",
+            FileHasher.hash(revision2.resolve("metadata/new.xml"), sha1).get(SHA1) + "  metadata/new.xml",
+            FileHasher.hash(revision2.resolve("manifest-sha1.txt"), sha1).get(SHA1) + "  manifest-sha1.txt"
+        );
+        assertThat(written.getTags()).containsKey(Path.of("metadata/new.xml")).doesNotContainKey(Path.of("metadata/old.xml"));
+        assertThat(plan.getTags()).containsKey(Path.of("metadata/old.xml")).doesNotContainKey(Path.of("metadata/new.xml"));
+    }
+}